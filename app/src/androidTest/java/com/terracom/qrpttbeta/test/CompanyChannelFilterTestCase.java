@@ -0,0 +1,81 @@
+package com.terracom.qrpttbeta.test;
+
+import android.test.AndroidTestCase;
+
+import com.terracom.jumble.model.Channel;
+import com.terracom.qrpttbeta.channel.ChannelVisibilityFilter;
+import com.terracom.qrpttbeta.channel.CompanyChannelFilter;
+import com.terracom.qrpttbeta.util.JumbleModelMirror;
+
+public class CompanyChannelFilterTestCase extends AndroidTestCase {
+    private static final int ROOT = 0;
+    private static final int REGION = 1;
+    private static final int COMPANY = 2;
+    private static final int COMPANY_SUBCHANNEL = 3;
+    private static final int OTHER = 4;
+    private static final int SIMILAR_NAMES = 100;
+
+    private JumbleModelMirror mModel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mModel = new JumbleModelMirror(null);
+        addChannel(ROOT, -1, CompanyChannelFilter.ROOT_CHANNEL);
+        addChannel(OTHER, ROOT, "Other");
+        // More channels sharing the company's name as a prefix than a name search returns.
+        for (int i = 0; i < 40; i++) {
+            addChannel(SIMILAR_NAMES + i, OTHER, "Acme " + i);
+        }
+        addChannel(REGION, ROOT, "Region");
+        addChannel(COMPANY, REGION, "Acme");
+        addChannel(COMPANY_SUBCHANNEL, COMPANY, "Sub");
+    }
+
+    private void addChannel(int id, int parent, String name) throws Exception {
+        Channel channel = new Channel(id, false);
+        channel.setName(name);
+        if (parent >= 0) {
+            channel.setParent(parent);
+            mModel.getChannel(parent).addSubchannel(id);
+        }
+        mModel.onChannelAdded(channel);
+    }
+
+    private boolean isVisible(ChannelVisibilityFilter filter, int id) {
+        return filter.isChannelVisible(mModel.getChannelState(id));
+    }
+
+    public void testCompanyBranchVisible() {
+        ChannelVisibilityFilter filter = new CompanyChannelFilter("Acme").bind(mModel);
+        assertTrue(isVisible(filter, ROOT));
+        assertTrue(isVisible(filter, REGION));
+        assertTrue(isVisible(filter, COMPANY));
+        assertFalse(isVisible(filter, COMPANY_SUBCHANNEL));
+        assertFalse(isVisible(filter, OTHER));
+        assertFalse(isVisible(filter, SIMILAR_NAMES));
+    }
+
+    public void testUnboundFilterHidesAncestors() {
+        ChannelVisibilityFilter filter = new CompanyChannelFilter("Acme");
+        assertTrue(isVisible(filter, COMPANY));
+        assertFalse(isVisible(filter, REGION));
+    }
+
+    public void testBranchFollowsMove() throws Exception {
+        Channel company = mModel.getChannel(COMPANY);
+        company.setParent(OTHER);
+        mModel.onChannelStateUpdated(company);
+        ChannelVisibilityFilter filter = new CompanyChannelFilter("Acme").bind(mModel);
+        assertTrue(isVisible(filter, OTHER));
+        assertFalse(isVisible(filter, REGION));
+    }
+
+    public void testEmptyNameFallsBackToDemoChannel() throws Exception {
+        addChannel(50, REGION, CompanyChannelFilter.DEMO_CHANNEL);
+        ChannelVisibilityFilter filter = new CompanyChannelFilter("").bind(mModel);
+        assertTrue(isVisible(filter, 50));
+        assertTrue(isVisible(filter, REGION));
+        assertFalse(isVisible(filter, COMPANY));
+    }
+}
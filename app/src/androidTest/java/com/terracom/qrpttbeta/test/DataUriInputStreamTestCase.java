@@ -0,0 +1,121 @@
+package com.terracom.qrpttbeta.test;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Base64;
+import android.util.Log;
+
+import com.terracom.qrpttbeta.util.DataUriInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Random;
+
+public class DataUriInputStreamTestCase extends AndroidTestCase {
+    private static final String TAG = "DataUriInputStreamTest";
+    private static final String PREFIX = "data:image/png;base64,";
+    private static final int IMAGE_SIZE = 256;
+    private static final int ITERATIONS = 10;
+
+    private byte[] mImage;
+    private String mUri;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Noise keeps the PNG from compressing, like a pasted photo.
+        Random random = new Random(0);
+        int[] pixels = new int[IMAGE_SIZE * IMAGE_SIZE];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt() | 0xFF000000;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(pixels, IMAGE_SIZE, IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        mImage = out.toByteArray();
+        // Escaped so that the previous, URL decoding path reads it correctly too.
+        mUri = PREFIX + Base64.encodeToString(mImage, Base64.DEFAULT).replace("+", "%2B");
+    }
+
+    public void testDecodesPayload() throws Exception {
+        assertTrue(Arrays.equals(mImage, readFully(new DataUriInputStream(mUri, PREFIX.length()))));
+    }
+
+    public void testDecodesEscapesAndPadding() throws Exception {
+        byte[] expected = "any carnal pleas".getBytes("UTF-8");
+        String uri = "data:text/plain;base64,YW55IGNh%0Acm5hbCBw%3D%3DbGVhcw==";
+        // Decoding stops at the first padding, as the payload ends there.
+        assertTrue(Arrays.equals(Arrays.copyOf(expected, 12), readFully(new DataUriInputStream(uri, 23))));
+        uri = "data:text/plain;base64,YW55IGNh%0Acm5hbCBwbGVhcw%3D%3D";
+        assertTrue(Arrays.equals(expected, readFully(new DataUriInputStream(uri, 23))));
+    }
+
+    /**
+     * Compares the bytes allocated by decoding an inline image through the previous URL decode,
+     * split and base64 decode path against streaming it from the URI. Allocations are counted
+     * as they happen, so transient copies count even if collected before the decode returns.
+     * Both paths allocate the same bitmap; the streaming path must skip the copies of the URI.
+     */
+    @SuppressWarnings("deprecation")
+    public void testAllocationBenchmark() throws Exception {
+        long legacy = measureAllocation(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String decoded = URLDecoder.decode(mUri, "UTF-8");
+                    byte[] data = Base64.decode(decoded.split(",")[1], Base64.DEFAULT);
+                    BitmapFactory.decodeByteArray(data, 0, data.length).recycle();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        long streaming = measureAllocation(new Runnable() {
+            @Override
+            public void run() {
+                BitmapFactory.decodeStream(new DataUriInputStream(mUri, PREFIX.length())).recycle();
+            }
+        });
+        Log.i(TAG, "URI of " + mUri.length() + " chars: legacy path allocated "
+                + legacy + " bytes per decode, streaming path " + streaming);
+        // The legacy path copies the URI at least once as chars and once as decoded bytes.
+        assertTrue("streaming " + streaming + " >= legacy " + legacy, streaming < legacy);
+        assertTrue("streaming " + streaming + " saved less than the payload",
+                legacy - streaming >= mImage.length);
+    }
+
+    /**
+     * @return The average number of bytes the decode allocates on this thread.
+     */
+    @SuppressWarnings("deprecation")
+    private static long measureAllocation(Runnable decode) {
+        decode.run(); // Warm up.
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            try {
+                decode.run();
+            } finally {
+                Debug.stopAllocCounting();
+            }
+            total += Debug.getThreadAllocSize();
+        }
+        return total / ITERATIONS;
+    }
+
+    private static byte[] readFully(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
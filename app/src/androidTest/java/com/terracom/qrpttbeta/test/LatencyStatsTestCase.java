@@ -0,0 +1,90 @@
+package com.terracom.qrpttbeta.test;
+
+import android.test.AndroidTestCase;
+
+import com.terracom.qrpttbeta.servers.LatencyStats;
+
+public class LatencyStatsTestCase extends AndroidTestCase {
+
+    public void testEmpty() {
+        LatencyStats stats = new LatencyStats();
+        assertFalse(stats.hasLatency());
+        assertEquals(0, stats.getCount());
+        assertEquals(-1, stats.getPercentile(50));
+        assertEquals(0f, stats.getLoss());
+    }
+
+    public void testPercentiles() {
+        LatencyStats stats = new LatencyStats();
+        // Added out of order, so the percentiles must come from a sort.
+        for (int rtt = 100; rtt >= 1; rtt -= 11) {
+            stats.addSample(rtt);
+        }
+        // 100, 89, 78, 67, 56, 45, 34, 23, 12, 1
+        assertEquals(10, stats.getCount());
+        assertEquals(45, stats.getPercentile(50));
+        assertEquals(100, stats.getPercentile(95));
+        assertEquals(1, stats.getPercentile(0));
+        assertEquals(100, stats.getPercentile(100));
+    }
+
+    public void testPercentilesSkipLoss() {
+        LatencyStats stats = new LatencyStats();
+        stats.addSample(10);
+        stats.addLoss();
+        stats.addSample(30);
+        assertEquals(10, stats.getPercentile(50));
+        assertEquals(30, stats.getPercentile(95));
+    }
+
+    public void testLoss() {
+        LatencyStats stats = new LatencyStats();
+        for (int i = 0; i < 3; i++) {
+            stats.addSample(20);
+        }
+        stats.addLoss();
+        assertEquals(4, stats.getCount());
+        assertEquals(0.25f, stats.getLoss());
+    }
+
+    public void testWindowEvictsOldestSample() {
+        LatencyStats stats = new LatencyStats();
+        stats.addLoss();
+        for (int i = 0; i < LatencyStats.CAPACITY - 1; i++) {
+            stats.addSample(20);
+        }
+        assertEquals(1f / LatencyStats.CAPACITY, stats.getLoss());
+        stats.addSample(20);
+        assertEquals(LatencyStats.CAPACITY, stats.getCount());
+        assertEquals(0f, stats.getLoss());
+    }
+
+    public void testEwma() {
+        LatencyStats stats = new LatencyStats();
+        stats.addSample(80);
+        assertEquals(80, stats.getEwma());
+        // 80 + (160 - 80) / 8
+        stats.addSample(160);
+        assertEquals(90, stats.getEwma());
+    }
+
+    public void testJitter() {
+        LatencyStats stats = new LatencyStats();
+        stats.addSample(50);
+        assertEquals(0, stats.getJitter());
+        // 0 + (|82 - 50| - 0) / 16
+        stats.addSample(82);
+        assertEquals(2, stats.getJitter());
+    }
+
+    public void testJitterNotMeasuredAcrossLoss() {
+        LatencyStats stats = new LatencyStats();
+        stats.addSample(20);
+        stats.addLoss();
+        stats.addSample(500);
+        assertEquals(0, stats.getJitter());
+        // Resumes between the two answered pings after the gap: |532 - 500| / 16
+        stats.addSample(532);
+        assertEquals(2, stats.getJitter());
+    }
+}
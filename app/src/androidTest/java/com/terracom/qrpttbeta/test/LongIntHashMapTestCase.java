@@ -0,0 +1,89 @@
+package com.terracom.qrpttbeta.test;
+
+import android.test.AndroidTestCase;
+
+import com.terracom.qrpttbeta.util.LongIntHashMap;
+
+public class LongIntHashMapTestCase extends AndroidTestCase {
+    private static final long CHANNEL_ID_MASK = (0x1L << 32);
+    private static final long USER_ID_MASK = (0x1L << 33);
+
+    public void testMissingValue() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        assertEquals(-1, map.get(42));
+        assertFalse(map.containsKey(42));
+        assertEquals(0, map.size());
+    }
+
+    public void testPutReplaces() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        map.put(7, 1);
+        map.put(7, 2);
+        assertEquals(2, map.get(7));
+        assertEquals(1, map.size());
+    }
+
+    public void testChannelAndUserIdsDontCollide() {
+        // The adapter keys channels and users sharing a numeric id apart by a high bit.
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        map.put(CHANNEL_ID_MASK | 5, 1);
+        map.put(USER_ID_MASK | 5, 2);
+        assertEquals(1, map.get(CHANNEL_ID_MASK | 5));
+        assertEquals(2, map.get(USER_ID_MASK | 5));
+        assertEquals(-1, map.get(5));
+    }
+
+    /**
+     * @return Keys hashing to the same slot of a table of the given capacity, found with the
+     * map's own hash function.
+     */
+    private static long[] findCollidingKeys(int count, int capacity) {
+        long[] keys = new long[count];
+        int found = 0;
+        for (long key = 0; found < count; key++) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            if (((int) (h ^ (h >>> 32)) & (capacity - 1)) == 0) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    public void testCollidingKeys() {
+        // Sized for 16 entries, so the table has 32 slots and doesn't grow below 16 entries.
+        LongIntHashMap map = new LongIntHashMap(16, -1);
+        long[] keys = findCollidingKeys(9, 32);
+        for (int i = 0; i < 8; i++) {
+            map.put(keys[i], i);
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i, map.get(keys[i]));
+        }
+        // Probes past every colliding entry before finding it absent.
+        assertEquals(-1, map.get(keys[8]));
+        assertFalse(map.containsKey(keys[8]));
+    }
+
+    public void testResize() {
+        LongIntHashMap map = new LongIntHashMap(0, -1);
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            map.put(USER_ID_MASK | i, i);
+        }
+        assertEquals(count, map.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, map.get(USER_ID_MASK | i));
+        }
+        assertEquals(-1, map.get(USER_ID_MASK | count));
+    }
+
+    public void testClear() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        map.put(1, 1);
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(1));
+        map.put(1, 3);
+        assertEquals(3, map.get(1));
+    }
+}
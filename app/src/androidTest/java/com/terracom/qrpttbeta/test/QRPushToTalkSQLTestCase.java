@@ -19,8 +19,11 @@ package com.terracom.qrpttbeta.test;
 
 import android.test.AndroidTestCase;
 
+import com.terracom.qrpttbeta.db.ChatMessage;
 import com.terracom.qrpttbeta.db.QRPushToTalkSQLiteDatabase;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 public class QRPushToTalkSQLTestCase extends AndroidTestCase {
@@ -64,4 +67,70 @@ public class QRPushToTalkSQLTestCase extends AndroidTestCase {
         assertEquals(0, mDatabase.getLocalMutedUsers(server).size());
         assertEquals(0, mDatabase.getLocalIgnoredUsers(server).size());
     }
+
+    public void testChatMessagePaging() {
+        long server = 5;
+        List<ChatMessage> messages = new ArrayList<ChatMessage>();
+        for (int i = 0; i < 5; i++) {
+            messages.add(new ChatMessage(-1, server, "actor", null, true, false, "message " + i, i));
+        }
+        mDatabase.addChatMessages(messages);
+
+        List<ChatMessage> latest = mDatabase.getChatMessagesBefore(server, Long.MAX_VALUE, 2);
+        assertEquals(2, latest.size());
+        assertEquals("message 3", latest.get(0).getBody());
+        assertEquals("message 4", latest.get(1).getBody());
+
+        List<ChatMessage> older = mDatabase.getChatMessagesBefore(server, latest.get(0).getId(), 10);
+        assertEquals(3, older.size());
+        assertEquals("message 0", older.get(0).getBody());
+
+        List<ChatMessage> newer = mDatabase.getChatMessagesAfter(server, older.get(2).getId(), 10);
+        assertEquals(2, newer.size());
+        assertEquals(latest.get(0).getId(), newer.get(0).getId());
+
+        mDatabase.clearChatMessages(server);
+        assertEquals(0, mDatabase.getChatMessagesBefore(server, Long.MAX_VALUE, 10).size());
+    }
+
+    public void testChatMessageSearch() {
+        long server = 6;
+        List<ChatMessage> messages = new ArrayList<ChatMessage>();
+        messages.add(new ChatMessage(-1, server, "actor", null, true, false, "Meet at the <b>gate</b>", 0));
+        messages.add(new ChatMessage(-1, server, "actor", null, true, false, "Gateway is down", 1));
+        messages.add(new ChatMessage(-1, server + 1, "actor", null, true, false, "gate closed", 2));
+        mDatabase.addChatMessages(messages);
+
+        List<ChatMessage> results = mDatabase.searchChatMessages(server, "gate", 10);
+        assertEquals(2, results.size());
+        assertEquals("Meet at the <b>gate</b>", results.get(0).getBody());
+        assertEquals(1, mDatabase.searchChatMessages(server, "meet gate", 10).size());
+        assertEquals(0, mDatabase.searchChatMessages(server, "b", 10).size());
+
+        mDatabase.clearChatMessages(server);
+        assertEquals(0, mDatabase.searchChatMessages(server, "gate", 10).size());
+        assertEquals(1, mDatabase.searchChatMessages(server + 1, "gate", 10).size());
+    }
+
+    public void testChatMessageTrim() {
+        long server = 8;
+        List<ChatMessage> messages = new ArrayList<ChatMessage>();
+        for (int i = 0; i < 5; i++) {
+            messages.add(new ChatMessage(-1, server, "actor", null, true, false, "word " + i, i));
+        }
+        messages.add(new ChatMessage(-1, server + 1, "actor", null, true, false, "word other", 5));
+        mDatabase.addChatMessages(messages);
+
+        mDatabase.trimChatMessages(server, 2);
+        List<ChatMessage> kept = mDatabase.getChatMessagesBefore(server, Long.MAX_VALUE, 10);
+        assertEquals(2, kept.size());
+        assertEquals("word 3", kept.get(0).getBody());
+        assertEquals("word 4", kept.get(1).getBody());
+        // The search index is trimmed with the table, and other servers are left alone.
+        assertEquals(2, mDatabase.searchChatMessages(server, "word", 10).size());
+        assertEquals(1, mDatabase.searchChatMessages(server + 1, "word", 10).size());
+
+        mDatabase.trimChatMessages(server, 2);
+        assertEquals(2, mDatabase.getChatMessagesBefore(server, Long.MAX_VALUE, 10).size());
+    }
 }
@@ -0,0 +1,65 @@
+package com.terracom.qrpttbeta.test;
+
+import android.test.AndroidTestCase;
+
+import com.terracom.jumble.model.Server;
+import com.terracom.qrpttbeta.servers.LatencyStats;
+import com.terracom.qrpttbeta.servers.ServerInfoResponse;
+import com.terracom.qrpttbeta.servers.ServerSelector;
+
+import java.nio.ByteBuffer;
+
+public class ServerSelectorTestCase extends AndroidTestCase {
+    private static final Server SERVER = new Server(1, "Mirror", "localhost", 64738, "", "");
+
+    private static ServerInfoResponse response(int latency, int currentUsers, int maximumUsers) {
+        ByteBuffer buffer = ByteBuffer.allocate(24);
+        buffer.putInt(0x010203); // Version
+        buffer.putLong(SERVER.getId());
+        buffer.putInt(currentUsers);
+        buffer.putInt(maximumUsers);
+        buffer.putInt(72000); // Allowed bandwidth
+        return new ServerInfoResponse(SERVER, buffer.array(), latency);
+    }
+
+    private static float score(int latency, int currentUsers, int maximumUsers) {
+        return ServerSelector.score(response(latency, currentUsers, maximumUsers), null);
+    }
+
+    public void testLowerLatencyWins() {
+        assertTrue(score(20, 10, 100) < score(40, 10, 100));
+    }
+
+    public void testLoadOutweighsSmallLatencyGap() {
+        assertTrue(score(30, 0, 100) < score(20, 90, 100));
+    }
+
+    public void testFullServerLosesToSlowerOne() {
+        assertTrue(score(300, 50, 100) < score(10, 100, 100));
+    }
+
+    public void testUnknownLoadScoresAsHalfFull() {
+        assertEquals(score(20, 50, 100), score(20, 0, 0));
+    }
+
+    public void testHistoryReplacesSingleReply() {
+        LatencyStats steady = new LatencyStats();
+        for (int i = 0; i < 8; i++) {
+            steady.addSample(100);
+        }
+        // One lucky reply from a server that is usually slow doesn't beat a steady faster one.
+        assertTrue(score(50, 10, 100) < ServerSelector.score(response(10, 10, 100), steady));
+    }
+
+    public void testLossPenalized() {
+        LatencyStats clean = new LatencyStats();
+        LatencyStats lossy = new LatencyStats();
+        for (int i = 0; i < 8; i++) {
+            clean.addSample(40);
+            lossy.addSample(30);
+            if (i % 2 == 0) lossy.addLoss();
+        }
+        ServerInfoResponse response = response(30, 10, 100);
+        assertTrue(ServerSelector.score(response, clean) < ServerSelector.score(response, lossy));
+    }
+}
@@ -59,6 +59,12 @@ public class Settings {
     public static final String PREF_AUTO_RECONNECT = "autoReconnect";
     public static final Boolean DEFAULT_AUTO_RECONNECT = true;
 
+    public static final String PREF_AUTO_SELECT_SERVER = "autoSelectServer";
+    public static final Boolean DEFAULT_AUTO_SELECT_SERVER = false;
+
+    public static final String PREF_PING_INTERVAL = "pingInterval";
+    public static final String DEFAULT_PING_INTERVAL = "2000";
+
     public static final String PREF_THEME = "theme";
 
     public static final String PREF_CERT = "certificatePath";
@@ -247,6 +253,20 @@ public class Settings {
         return preferences.getBoolean(PREF_AUTO_RECONNECT, DEFAULT_AUTO_RECONNECT);
     }
 
+    /**
+     * @return Whether to connect to the best of the saved servers sharing the chosen one's name.
+     */
+    public boolean isAutoSelectServerEnabled() {
+        return preferences.getBoolean(PREF_AUTO_SELECT_SERVER, DEFAULT_AUTO_SELECT_SERVER);
+    }
+
+    /**
+     * @return How long a server's ping result stays fresh, in ms.
+     */
+    public long getPingInterval() {
+        return Long.parseLong(preferences.getString(PREF_PING_INTERVAL, DEFAULT_PING_INTERVAL));
+    }
+
     public boolean isTcpForced() {
         return preferences.getBoolean(PREF_FORCE_TCP, DEFAULT_FORCE_TCP);
     }
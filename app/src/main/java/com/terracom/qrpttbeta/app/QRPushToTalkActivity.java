@@ -2,14 +2,18 @@ package com.terracom.qrpttbeta.app;
 
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
+import android.net.ConnectivityManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
@@ -49,7 +53,9 @@ import com.terracom.qrpttbeta.preference.Preferences;
 import com.terracom.qrpttbeta.preference.QRPushToTalkCertificateGenerateTask;
 import com.terracom.qrpttbeta.servers.FavouriteServerListFragment;
 import com.terracom.qrpttbeta.servers.ServerEditFragment;
+import com.terracom.qrpttbeta.servers.ServerSelector;
 import com.terracom.qrpttbeta.service.QRPushToTalkService;
+import com.terracom.qrpttbeta.util.DnsCache;
 import com.terracom.qrpttbeta.util.JumbleServiceFragment;
 import com.terracom.qrpttbeta.util.JumbleServiceProvider;
 import com.terracom.qrpttbeta.util.QRPushToTalkTrustStore;
@@ -90,6 +96,16 @@ public class QRPushToTalkActivity extends ActionBarActivity implements ListView.
 
     private List<JumbleServiceFragment> mServiceFragments = new ArrayList<JumbleServiceFragment>();
 
+    private BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Registering delivers the current state, which the prefetch on create covers.
+            if (isInitialStickyBroadcast()) return;
+            DnsCache.getInstance().invalidate();
+            DnsCache.getInstance().prefetch(mDatabase.getServers());
+        }
+    };
+
     private ServiceConnection mConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
@@ -170,7 +186,8 @@ public class QRPushToTalkActivity extends ActionBarActivity implements ListView.
                     KeyStore trustStore = QRPushToTalkTrustStore.getTrustStore(QRPushToTalkActivity.this);
                     trustStore.setCertificateEntry(alias, x509);
                     QRPushToTalkTrustStore.saveTrustStore(QRPushToTalkActivity.this, trustStore);
-                    connectToServer(lastServer);
+                    // Retry the same mirror, as the certificate trusted is its own.
+                    startConnection(lastServer);
                 } catch (Exception e) {
                     e.printStackTrace();
                     Toast.makeText(QRPushToTalkActivity.this, R.string.trust_add_failed + "Exit from the app and try again", Toast.LENGTH_LONG).show();
@@ -202,9 +219,12 @@ public class QRPushToTalkActivity extends ActionBarActivity implements ListView.
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
         preferences.registerOnSharedPreferenceChangeListener(this);
 
-        mDatabase = new QRPushToTalkSQLiteDatabase(this);
+        mDatabase = QRPushToTalkSQLiteDatabase.getInstance(this);
         mDatabase.open();
 
+        DnsCache.getInstance().prefetch(mDatabase.getServers());
+        registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+
         mDrawerLayout = (DrawerLayout) findViewById(R.id.drawer_layout);
         mDrawerList = (ListView) findViewById(R.id.left_drawer);
         mDrawerList.setOnItemClickListener(this);
@@ -323,7 +343,7 @@ public class QRPushToTalkActivity extends ActionBarActivity implements ListView.
     protected void onDestroy() {
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
         preferences.unregisterOnSharedPreferenceChangeListener(this);
-        mDatabase.close();
+        unregisterReceiver(mConnectivityReceiver);
 
 
         if (!ServerEditFragment.CompanyNameStr.equals("")) {
@@ -563,6 +583,22 @@ public class QRPushToTalkActivity extends ActionBarActivity implements ListView.
             e.printStackTrace();
         }
 
+        if (mSettings.isAutoSelectServerEnabled() && server.isSaved()) {
+            List<Server> mirrors = ServerSelector.getMirrors(server, mDatabase.getServers());
+            if (mirrors.size() > 1) {
+                new ServerSelector(mirrors, server, new ServerSelector.OnServerSelectedListener() {
+                    @Override
+                    public void onServerSelected(Server selected) {
+                        startConnection(selected);
+                    }
+                }).start();
+                return;
+            }
+        }
+        startConnection(server);
+    }
+
+    private void startConnection(Server server) {
         SharedPreferences mysettings = getSharedPreferences(LastChannelPreference, 0);
         nameOfSavedLastLoggedChannel = mysettings.getString("LastChannel", "");
 
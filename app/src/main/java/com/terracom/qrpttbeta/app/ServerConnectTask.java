@@ -13,8 +13,11 @@ import com.terracom.qrpttbeta.R;
 import com.terracom.qrpttbeta.Settings;
 import com.terracom.qrpttbeta.db.QRPushToTalkDatabase;
 import com.terracom.qrpttbeta.service.QRPushToTalkService;
+import com.terracom.qrpttbeta.util.DnsCache;
 import com.terracom.qrpttbeta.util.QRPushToTalkTrustStore;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 
 public class ServerConnectTask extends AsyncTask<Server, Void, Intent> {
@@ -31,6 +34,17 @@ public class ServerConnectTask extends AsyncTask<Server, Void, Intent> {
     @Override
     protected Intent doInBackground(Server... params) {
         Server server = params[0];
+        if (!mSettings.isTorEnabled()) {
+            // Hand the service the address already known, so that it connects without a lookup
+            // of its own. Over Tor the host must be left for the proxy to resolve.
+            try {
+                InetAddress address = DnsCache.getInstance().resolve(server.getHost());
+                server = new Server(server.getId(), server.getName(), address.getHostAddress(),
+                        server.getPort(), server.getUsername(), server.getPassword());
+            } catch (UnknownHostException e) {
+                // Left for the service to report.
+            }
+        }
         int inputMethod = mSettings.getJumbleInputMethod();
 
         int audioSource = mSettings.isHandsetMode() ?
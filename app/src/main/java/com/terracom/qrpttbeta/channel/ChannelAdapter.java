@@ -7,12 +7,14 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.terracom.jumble.IJumbleService;
 import com.terracom.jumble.model.Channel;
 import com.terracom.jumble.model.User;
 import com.terracom.qrpttbeta.R;
+import com.terracom.qrpttbeta.util.JumbleModelMirror;
 
 public class ChannelAdapter extends BaseAdapter {
 
@@ -34,7 +36,7 @@ public class ChannelAdapter extends BaseAdapter {
     @Override
     public Object getItem(int position) {
         try {
-            return mService.getUser(mChannel.getUsers().get(position));
+            return JumbleModelMirror.resolveUser(mService, mChannel.getUsers().get(position));
         } catch (RemoteException e) {
             e.printStackTrace();
         }
@@ -54,26 +56,46 @@ public class ChannelAdapter extends BaseAdapter {
             v = layoutInflater.inflate(R.layout.overlay_user_row, parent, false);
         }
         User user = (User) getItem(position);
-        TextView titleView = (TextView) v.findViewById(R.id.user_row_name);
-        titleView.setText(user.getName());
+        bindUser(v, user, UserPayload.ALL);
+        return v;
+    }
+
+    /**
+     * Rebinds only the given parts of a user's row, if the row is currently visible in the list.
+     * @param changes A combination of {@link UserPayload} flags.
+     */
+    public void notifyUserChanged(ListView listView, User user, int changes) {
+        int position = mChannel.getUsers().indexOf(user.getSession());
+        if (position < 0) return;
+        View v = listView.getChildAt(position - listView.getFirstVisiblePosition());
+        if (v != null) {
+            bindUser(v, user, changes);
+        }
+    }
 
-        ImageView state = (ImageView) v.findViewById(R.id.user_row_state);
-        if (user.isSelfDeafened())
-            state.setImageResource(R.drawable.ic_deafened);
-        else if (user.isSelfMuted())
-            state.setImageResource(R.drawable.ic_muted);
-        else if (user.isDeafened())
-            state.setImageResource(R.drawable.ic_server_deafened);
-        else if (user.isMuted())
-            state.setImageResource(R.drawable.ic_server_muted);
-        else if (user.isSuppressed())
-            state.setImageResource(R.drawable.ic_suppressed);
-        else if (user.getTalkState() == User.TalkState.TALKING)
-            state.setImageResource(R.drawable.ic_talking_on);
-        else
-            state.setImageResource(R.drawable.ic_talking_off);
+    private void bindUser(View v, User user, int changes) {
+        if ((changes & UserPayload.NAME) != 0) {
+            TextView titleView = (TextView) v.findViewById(R.id.user_row_name);
+            titleView.setText(user.getName());
+        }
 
-        return v;
+        if ((changes & (UserPayload.TALK_STATE | UserPayload.MUTE_STATE)) != 0) {
+            ImageView state = (ImageView) v.findViewById(R.id.user_row_state);
+            if (user.isSelfDeafened())
+                state.setImageResource(R.drawable.ic_deafened);
+            else if (user.isSelfMuted())
+                state.setImageResource(R.drawable.ic_muted);
+            else if (user.isDeafened())
+                state.setImageResource(R.drawable.ic_server_deafened);
+            else if (user.isMuted())
+                state.setImageResource(R.drawable.ic_server_muted);
+            else if (user.isSuppressed())
+                state.setImageResource(R.drawable.ic_suppressed);
+            else if (user.getTalkState() == User.TalkState.TALKING)
+                state.setImageResource(R.drawable.ic_talking_on);
+            else
+                state.setImageResource(R.drawable.ic_talking_off);
+        }
     }
 
     public void setChannel(Channel channel) {
@@ -1,11 +1,14 @@
 package com.terracom.qrpttbeta.channel;
 
 import android.app.Activity;
-import android.content.Context;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.RemoteException;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
 import android.text.Editable;
-import android.text.Html;
 import android.text.TextWatcher;
 import android.text.method.LinkMovementMethod;
 import android.view.Gravity;
@@ -17,21 +20,21 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.TextView.OnEditorActionListener;
 
-import com.terracom.jumble.IJumbleObserver;
 import com.terracom.jumble.IJumbleService;
-import com.terracom.jumble.model.Channel;
 import com.terracom.jumble.model.Message;
 import com.terracom.jumble.model.User;
-import com.terracom.jumble.util.JumbleObserver;
 import com.terracom.qrpttbeta.R;
+import com.terracom.qrpttbeta.db.ChatMessage;
+import com.terracom.qrpttbeta.service.QRPushToTalkChatHistory;
+import com.terracom.qrpttbeta.service.QRPushToTalkService;
+import com.terracom.qrpttbeta.util.JumbleEventBatch;
+import com.terracom.qrpttbeta.util.JumbleEventDispatcher;
 import com.terracom.qrpttbeta.util.JumbleServiceFragment;
 import com.terracom.qrpttbeta.util.MumbleImageGetter;
 
@@ -42,27 +45,64 @@ import java.util.regex.Pattern;
 
 public class ChannelChatFragment extends JumbleServiceFragment implements ChatTargetProvider.OnChatTargetSelectedListener {
     private static final Pattern LINK_PATTERN = Pattern.compile("(https?://\\S+)");
-    private static final String CHAT_DATE_FORMAT = "%I:%M %p";
+    private static final int WINDOW_SIZE = 200; // Messages held in memory at most.
+    private static final int PAGE_SIZE = 50;
+    private static final int SEARCH_LIMIT = 100;
 
-    private IJumbleObserver mServiceObserver = new JumbleObserver() {
+    private QRPushToTalkChatHistory.OnMessagesAddedListener mHistoryListener = new QRPushToTalkChatHistory.OnMessagesAddedListener() {
+        @Override
+        public void onMessagesAdded(List<ChatMessage> messages) {
+            // Messages stored before the first page was read are part of it. While the window is
+            // paged back in history, new messages are picked up when paging forward again.
+            if (!mLoaded || mHasNewer) return;
+            final int generation = mRenderGeneration;
+            mRenderer.render(messages, new ChatMessageRenderer.Callback() {
+                @Override
+                public void onMessagesRendered(List<ChatMessageRenderer.RenderedMessage> rendered) {
+                    if (generation != mRenderGeneration) return;
+                    appendMessages(rendered);
+                    if (!mSearching) scrollToBottom(true);
+                }
+            });
+        }
+    };
 
+    private RecyclerView.OnScrollListener mScrollListener = new RecyclerView.OnScrollListener() {
         @Override
-        public void onMessageLogged(Message message) throws RemoteException {
-            addChatMessage(message, true);
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (mSearching || !mLoaded || mLoading || mChatAdapter.getItemCount() == 0) return;
+            if (mLayoutManager.findFirstVisibleItemPosition() == 0 && mHasOlder) {
+                loadOlderMessages();
+            } else if (mLayoutManager.findLastVisibleItemPosition() == mChatAdapter.getItemCount() - 1 && mHasNewer) {
+                loadNewerMessages();
+            }
         }
+    };
 
+    private JumbleEventDispatcher.OnEventBatchListener mEventListener = new JumbleEventDispatcher.OnEventBatchListener() {
         @Override
-        public void onUserJoinedChannel(User user, Channel newChannel, Channel oldChannel) throws RemoteException {
-            if (user != null && getService().getSessionUser() != null &&
-                    user.equals(getService().getSessionUser()) &&
+        public void onEventBatch(JumbleEventBatch batch) throws RemoteException {
+            User self = getService().getSessionUser();
+            if (self != null && batch.getMove(self.getSession()) != null &&
                     mTargetProvider.getChatTarget() == null) {
                 updateChatTargetText(null);
             }
         }
     };
 
-    private ListView mChatList;
+    private RecyclerView mChatList;
+    private LinearLayoutManager mLayoutManager;
     private ChannelChatAdapter mChatAdapter;
+    private ChatMessageRenderer mRenderer;
+    private QRPushToTalkChatHistory mHistory;
+    private int mRenderGeneration;
+    private boolean mLoaded;
+    private boolean mLoading;
+    private boolean mHasOlder;
+    private boolean mHasNewer;
+    private ChannelChatAdapter mSearchAdapter;
+    private boolean mSearching;
+    private int mSearchGeneration;
     private EditText mChatTextEdit;
     private ImageButton mSendButton;
     private ChatTargetProvider mTargetProvider;
@@ -99,7 +139,10 @@ public class ChannelChatFragment extends JumbleServiceFragment implements ChatTa
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_chat, container, false);
-        mChatList = (ListView) view.findViewById(R.id.chat_list);
+        mLayoutManager = new LinearLayoutManager(getActivity());
+        mChatList = (RecyclerView) view.findViewById(R.id.chat_list);
+        mChatList.setLayoutManager(mLayoutManager);
+        mChatList.addOnScrollListener(mScrollListener);
         mChatTextEdit = (EditText) view.findViewById(R.id.chatTextEdit);
 
         mSendButton = (ImageButton) view.findViewById(R.id.chatTextSend);
@@ -154,6 +197,44 @@ public class ChannelChatFragment extends JumbleServiceFragment implements ChatTa
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.fragment_chat, menu);
+
+        MenuItem searchItem = menu.findItem(R.id.menu_search_chat);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.chatSearchHint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchMessages(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searchMessages(newText);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem, new MenuItemCompat.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                mSearching = true;
+                mSearchAdapter = new ChannelChatAdapter();
+                mChatList.setAdapter(mSearchAdapter);
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                mSearching = false;
+                mSearchGeneration++;
+                mSearchAdapter = null;
+                if (mChatAdapter != null) {
+                    mChatList.setAdapter(mChatAdapter);
+                    scrollToBottom(false);
+                }
+                return true;
+            }
+        });
     }
 
     @Override
@@ -166,22 +247,115 @@ public class ChannelChatFragment extends JumbleServiceFragment implements ChatTa
         return super.onOptionsItemSelected(item);
     }
 
-    public void addChatMessage(Message message, boolean scroll) {
-        if (mChatAdapter == null) return;
+    /**
+     * Appends messages to the in-memory window, dropping the oldest ones beyond its size.
+     */
+    private void appendMessages(List<ChatMessageRenderer.RenderedMessage> messages) {
+        mChatAdapter.append(messages);
+        int excess = mChatAdapter.getItemCount() - WINDOW_SIZE;
+        if (excess > 0) {
+            mChatAdapter.removeRange(0, excess);
+            mHasOlder = true;
+        }
+    }
+
+    /**
+     * Prepends a page of older messages, dropping the newest ones beyond the window's size.
+     */
+    private void prependMessages(List<ChatMessageRenderer.RenderedMessage> messages) {
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        View firstView = mLayoutManager.findViewByPosition(first);
+        mChatAdapter.prepend(messages);
+        int excess = mChatAdapter.getItemCount() - WINDOW_SIZE;
+        if (excess > 0) {
+            mChatAdapter.removeRange(WINDOW_SIZE, excess);
+            mHasNewer = true;
+        }
+        if (first != RecyclerView.NO_POSITION && !mSearching) {
+            mLayoutManager.scrollToPositionWithOffset(first + messages.size(),
+                    firstView != null ? firstView.getTop() - mChatList.getPaddingTop() : 0);
+        }
+    }
 
-        mChatAdapter.add(message);
+    private void loadOlderMessages() {
+        mLoading = true;
+        final int generation = mRenderGeneration;
+        mHistory.loadBefore(mChatAdapter.getItemId(0), PAGE_SIZE, new QRPushToTalkChatHistory.LoadCallback() {
+            @Override
+            public void onMessagesLoaded(List<ChatMessage> messages) {
+                if (generation != mRenderGeneration) return;
+                mHasOlder = messages.size() == PAGE_SIZE;
+                mRenderer.render(messages, new ChatMessageRenderer.Callback() {
+                    @Override
+                    public void onMessagesRendered(List<ChatMessageRenderer.RenderedMessage> rendered) {
+                        if (generation != mRenderGeneration) return;
+                        prependMessages(rendered);
+                        mLoading = false;
+                    }
+                });
+            }
+        });
+    }
 
-        if (scroll) {
-            mChatList.post(new Runnable() {
+    private void loadNewerMessages() {
+        mLoading = true;
+        final int generation = mRenderGeneration;
+        long newestId = mChatAdapter.getItemId(mChatAdapter.getItemCount() - 1);
+        mHistory.loadAfter(newestId, PAGE_SIZE, new QRPushToTalkChatHistory.LoadCallback() {
+            @Override
+            public void onMessagesLoaded(List<ChatMessage> messages) {
+                if (generation != mRenderGeneration) return;
+                // Messages stored after this read are delivered to the history listener next.
+                mHasNewer = messages.size() == PAGE_SIZE;
+                mRenderer.render(messages, new ChatMessageRenderer.Callback() {
+                    @Override
+                    public void onMessagesRendered(List<ChatMessageRenderer.RenderedMessage> rendered) {
+                        if (generation != mRenderGeneration) return;
+                        appendMessages(rendered);
+                        mLoading = false;
+                    }
+                });
+            }
+        });
+    }
 
-                @Override
-                public void run() {
-                    mChatList.smoothScrollToPosition(mChatAdapter.getCount() - 1);
-                }
-            });
+    /**
+     * Replaces the displayed search results with the newest messages matching the query.
+     */
+    private void searchMessages(String query) {
+        final int generation = ++mSearchGeneration;
+        if (mSearchAdapter == null || mHistory == null) return;
+        if (query.trim().length() == 0) {
+            mSearchAdapter.clear();
+            return;
         }
+        mHistory.search(query, SEARCH_LIMIT, new QRPushToTalkChatHistory.LoadCallback() {
+            @Override
+            public void onMessagesLoaded(List<ChatMessage> messages) {
+                if (generation != mSearchGeneration) return;
+                mRenderer.render(messages, new ChatMessageRenderer.Callback() {
+                    @Override
+                    public void onMessagesRendered(List<ChatMessageRenderer.RenderedMessage> rendered) {
+                        if (generation != mSearchGeneration || mSearchAdapter == null) return;
+                        mSearchAdapter.setMessages(rendered);
+                        if (mSearchAdapter.getItemCount() > 0) {
+                            mChatList.scrollToPosition(mSearchAdapter.getItemCount() - 1);
+                        }
+                    }
+                });
+            }
+        });
     }
 
+    private void scrollToBottom(boolean smooth) {
+        int last = mChatAdapter.getItemCount() - 1;
+        if (last < 0) return;
+        if (smooth) {
+            mChatList.smoothScrollToPosition(last);
+        } else {
+            mChatList.scrollToPosition(last);
+        }
+    }
 
     private void sendMessage() throws RemoteException {
         if (mChatTextEdit.length() == 0) return;
@@ -195,7 +369,8 @@ public class ChannelChatFragment extends JumbleServiceFragment implements ChatTa
             responseMessage = getService().sendUserTextMessage(target.getUser().getSession(), formattedMessage);
         else if (target.getChannel() != null)
             responseMessage = getService().sendChannelTextMessage(target.getChannel().getId(), formattedMessage, false);
-        addChatMessage(responseMessage, true);
+        if (responseMessage != null && mHistory != null)
+            mHistory.log(responseMessage, getService().getSession());
         mChatTextEdit.setText("");
     }
 
@@ -208,12 +383,15 @@ public class ChannelChatFragment extends JumbleServiceFragment implements ChatTa
     }
 
     public void clear() {
+        if (mHistory == null) return;
+        mRenderGeneration++;
+        mLoading = false;
+        mHasOlder = false;
+        mHasNewer = false;
+        mSearchGeneration++;
         mChatAdapter.clear();
-        try {
-            getService().clearMessageLog();
-        } catch (RemoteException e) {
-            e.printStackTrace();
-        }
+        if (mSearchAdapter != null) mSearchAdapter.clear();
+        mHistory.clear();
     }
 
     public void updateChatTargetText(ChatTargetProvider.ChatTarget target) throws RemoteException {
@@ -233,23 +411,47 @@ public class ChannelChatFragment extends JumbleServiceFragment implements ChatTa
 
     @Override
     public void onServiceBound(IJumbleService service) {
-        try {
-            mChatAdapter = new ChannelChatAdapter(getActivity(), service, service.getMessageLog());
-            mChatList.setAdapter(mChatAdapter);
-            mChatList.post(new Runnable() {
-                @Override
-                public void run() {
-                    mChatList.setSelection(mChatAdapter.getCount() - 1);
-                }
-            });
-        } catch (RemoteException e) {
-            e.printStackTrace();
+        if (!(service instanceof QRPushToTalkService.QRPushToTalkBinder)) return;
+        final int generation = ++mRenderGeneration;
+        mLoaded = false;
+        mLoading = false;
+        mHasNewer = false;
+        mRenderer = new ChatMessageRenderer(getActivity());
+        mChatAdapter = new ChannelChatAdapter();
+        if (!mSearching) mChatList.setAdapter(mChatAdapter);
+        mHistory = ((QRPushToTalkService.QRPushToTalkBinder) service).getChatHistory();
+        mHistory.addListener(mHistoryListener);
+        mHistory.loadBefore(Long.MAX_VALUE, WINDOW_SIZE / 2, new QRPushToTalkChatHistory.LoadCallback() {
+            @Override
+            public void onMessagesLoaded(List<ChatMessage> messages) {
+                if (generation != mRenderGeneration) return;
+                mLoaded = true;
+                mHasOlder = messages.size() == WINDOW_SIZE / 2;
+                mRenderer.render(messages, new ChatMessageRenderer.Callback() {
+                    @Override
+                    public void onMessagesRendered(List<ChatMessageRenderer.RenderedMessage> rendered) {
+                        if (generation != mRenderGeneration) return;
+                        appendMessages(rendered);
+                        scrollToBottom(false);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void onServiceUnbound(IJumbleService service) {
+        mRenderGeneration++;
+        mSearchGeneration++;
+        if (mHistory != null) {
+            mHistory.removeListener(mHistoryListener);
+            mHistory = null;
         }
     }
 
     @Override
-    public IJumbleObserver getServiceObserver() {
-        return mServiceObserver;
+    public JumbleEventDispatcher.OnEventBatchListener getEventBatchListener() {
+        return mEventListener;
     }
 
     @Override
@@ -261,78 +463,107 @@ public class ChannelChatFragment extends JumbleServiceFragment implements ChatTa
         }
     }
 
-    private static class ChannelChatAdapter extends ArrayAdapter<Message> {
+    /**
+     * Holds the displayed messages in order, keyed by their row ids. Changes are announced per
+     * range so that a batch of messages costs one partial layout.
+     */
+    private static class ChannelChatAdapter extends RecyclerView.Adapter<ChatViewHolder> {
+        private final List<ChatMessageRenderer.RenderedMessage> mMessages = new ArrayList<ChatMessageRenderer.RenderedMessage>();
 
-        private MumbleImageGetter mImageGetter;
-        private IJumbleService mService;
+        public ChannelChatAdapter() {
+            setHasStableIds(true);
+        }
 
-        public ChannelChatAdapter(Context context, IJumbleService service, List<Message> messages) {
-            super(context, 0, new ArrayList<Message>(messages));
-            mService = service;
-            mImageGetter = new MumbleImageGetter(context);
+        public void append(List<ChatMessageRenderer.RenderedMessage> messages) {
+            int start = mMessages.size();
+            mMessages.addAll(messages);
+            notifyItemRangeInserted(start, messages.size());
         }
 
-        @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            View v = convertView;
-            if (v == null) {
-                v = LayoutInflater.from(getContext()).inflate(R.layout.list_chat_item, parent, false);
-            }
+        public void prepend(List<ChatMessageRenderer.RenderedMessage> messages) {
+            mMessages.addAll(0, messages);
+            notifyItemRangeInserted(0, messages.size());
+        }
 
-            LinearLayout chatBox = (LinearLayout) v.findViewById(R.id.list_chat_item_box);
-            TextView targetText = (TextView) v.findViewById(R.id.list_chat_item_target);
-            TextView messageText = (TextView) v.findViewById(R.id.list_chat_item_text);
-            TextView timeText = (TextView) v.findViewById(R.id.list_chat_item_time);
-
-            Message message = getItem(position);
-            String targetMessage = getContext().getString(R.string.unknown);
-            boolean selfAuthored = false;
-            try {
-                selfAuthored = message.getActor() == mService.getSession();
-
-                if (message.getChannels() != null && !message.getChannels().isEmpty()) {
-                    Channel currentChannel = message.getChannels().get(0);
-                    if (currentChannel != null && currentChannel.getName() != null) {
-                        targetMessage = getContext().getString(R.string.chat_message_to, message.getActorName(), currentChannel.getName());
-                    }
-                } else if (message.getTrees() != null && !message.getTrees().isEmpty()) {
-                    Channel currentChannel = message.getTrees().get(0);
-                    if (currentChannel != null && currentChannel.getName() != null) {
-                        targetMessage = getContext().getString(R.string.chat_message_to, message.getActorName(), currentChannel.getName());
-                    }
-                } else if (message.getUsers() != null && !message.getUsers().isEmpty()) {
-                    User user = message.getUsers().get(0);
-                    if (user != null && user.getName() != null) {
-                        targetMessage = getContext().getString(R.string.chat_message_to, message.getActorName(), user.getName());
-                    }
-                } else {
-                    targetMessage = message.getActorName();
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+        public void removeRange(int start, int count) {
+            mMessages.subList(start, start + count).clear();
+            notifyItemRangeRemoved(start, count);
+        }
 
-            int gravity = selfAuthored ? Gravity.RIGHT : Gravity.LEFT;
+        public void setMessages(List<ChatMessageRenderer.RenderedMessage> messages) {
+            mMessages.clear();
+            mMessages.addAll(messages);
+            notifyDataSetChanged();
+        }
+
+        public void clear() {
+            int count = mMessages.size();
+            mMessages.clear();
+            notifyItemRangeRemoved(0, count);
+        }
 
-            chatBox.setGravity(gravity);
-            targetText.setVisibility(message.getType() == Message.Type.TEXT_MESSAGE ? View.VISIBLE : View.GONE);
-            targetText.setText(targetMessage);
-            messageText.setText(Html.fromHtml(message.getMessage(), mImageGetter, null));
-            messageText.setMovementMethod(LinkMovementMethod.getInstance());
-            messageText.setGravity(gravity);
-            timeText.setText(message.getReceivedTime().format(CHAT_DATE_FORMAT));
+        @Override
+        public ChatViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_chat_item, parent, false);
+            return new ChatViewHolder(v);
+        }
 
-            return v;
+        @Override
+        public void onBindViewHolder(ChatViewHolder holder, int position) {
+            ChatMessageRenderer.RenderedMessage message = mMessages.get(position);
+            int gravity = message.selfAuthored ? Gravity.RIGHT : Gravity.LEFT;
+
+            holder.mChatBox.setGravity(gravity);
+            holder.mTargetText.setVisibility(message.showTarget ? View.VISIBLE : View.GONE);
+            holder.mTargetText.setText(message.target);
+            holder.mMessageText.setText(message.text);
+            MumbleImageGetter.setImageCallback(message.text, holder.mImageCallback);
+            holder.mMessageText.setGravity(gravity);
+            holder.mTimeText.setText(message.time);
         }
 
         @Override
-        public boolean areAllItemsEnabled() {
-            return false;
+        public long getItemId(int position) {
+            return mMessages.get(position).id;
         }
 
         @Override
-        public boolean isEnabled(int position) {
-            return false;
+        public int getItemCount() {
+            return mMessages.size();
+        }
+    }
+
+    private static class ChatViewHolder extends RecyclerView.ViewHolder {
+        public LinearLayout mChatBox;
+        public TextView mTargetText;
+        public TextView mMessageText;
+        public TextView mTimeText;
+
+        /**
+         * Lays the message out again once one of its images has loaded and changed size.
+         */
+        public final Drawable.Callback mImageCallback = new Drawable.Callback() {
+            @Override
+            public void invalidateDrawable(Drawable who) {
+                mMessageText.setText(mMessageText.getText());
+            }
+
+            @Override
+            public void scheduleDrawable(Drawable who, Runnable what, long when) {
+            }
+
+            @Override
+            public void unscheduleDrawable(Drawable who, Runnable what) {
+            }
+        };
+
+        public ChatViewHolder(View v) {
+            super(v);
+            mChatBox = (LinearLayout) v.findViewById(R.id.list_chat_item_box);
+            mTargetText = (TextView) v.findViewById(R.id.list_chat_item_target);
+            mMessageText = (TextView) v.findViewById(R.id.list_chat_item_text);
+            mTimeText = (TextView) v.findViewById(R.id.list_chat_item_time);
+            mMessageText.setMovementMethod(LinkMovementMethod.getInstance());
         }
     }
 }
@@ -20,11 +20,11 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 
-import com.terracom.jumble.IJumbleObserver;
 import com.terracom.jumble.model.User;
-import com.terracom.jumble.util.JumbleObserver;
 import com.terracom.qrpttbeta.R;
 import com.terracom.qrpttbeta.Settings;
+import com.terracom.qrpttbeta.util.JumbleEventBatch;
+import com.terracom.qrpttbeta.util.JumbleEventDispatcher;
 import com.terracom.qrpttbeta.util.JumbleServiceFragment;
 
 import java.util.ArrayList;
@@ -41,10 +41,12 @@ public class ChannelFragment extends JumbleServiceFragment implements SharedPref
     private List<OnChatTargetSelectedListener> mChatTargetListeners = new ArrayList<OnChatTargetSelectedListener>();
     private boolean mTogglePTT;
 
-    private JumbleObserver mObserver = new JumbleObserver() {
+    private JumbleEventDispatcher.OnEventBatchListener mEventListener = new JumbleEventDispatcher.OnEventBatchListener() {
         @Override
-        public void onUserTalkStateUpdated(User user) throws RemoteException {
-            if (user != null && user.getSession() == getService().getSession()) {
+        public void onEventBatch(JumbleEventBatch batch) throws RemoteException {
+            int session = getService().getSession();
+            for (User user : batch.getTalkStateUpdatedUsers()) {
+                if (user.getSession() != session) continue;
                 switch (user.getTalkState()) {
                     case TALKING:
                     case SHOUTING:
@@ -167,8 +169,8 @@ public class ChannelFragment extends JumbleServiceFragment implements SharedPref
     }
 
     @Override
-    public IJumbleObserver getServiceObserver() {
-        return mObserver;
+    public JumbleEventDispatcher.OnEventBatchListener getEventBatchListener() {
+        return mEventListener;
     }
 
     private boolean isShowingPinnedChannels() {
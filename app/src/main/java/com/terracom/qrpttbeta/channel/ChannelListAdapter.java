@@ -2,12 +2,20 @@ package com.terracom.qrpttbeta.channel;
 
 import android.content.Context;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Typeface;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.RemoteException;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.util.DisplayMetrics;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -25,32 +33,53 @@ import com.terracom.qrpttbeta.app.QRPushToTalkActivity;
 import com.terracom.qrpttbeta.db.QRPushToTalkDatabase;
 import com.terracom.qrpttbeta.drawable.CircleDrawable;
 import com.terracom.qrpttbeta.drawable.FlipDrawable;
+import com.terracom.qrpttbeta.util.ImageCache;
+import com.terracom.qrpttbeta.util.JumbleModelMirror;
+import com.terracom.qrpttbeta.util.JumbleModelMirror.ChannelState;
+import com.terracom.qrpttbeta.util.JumbleModelMirror.UserState;
+import com.terracom.qrpttbeta.util.LongIntHashMap;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ChannelListAdapter extends RecyclerView.Adapter {
     public static final long CHANNEL_ID_MASK = (0x1L << 32);
     public static final long USER_ID_MASK = (0x1L << 33);
-    String nameOfChannel = QRPushToTalkActivity.nameOfSavedLastLoggedChannel;
 
     private static final long FLIP_DURATION = 350;
 
+    private static final ExecutorService sTreeExecutor = Executors.newSingleThreadExecutor();
+
     private Context mContext;
     private IJumbleService mService;
+    private JumbleModelMirror mModel;
     private QRPushToTalkDatabase mDatabase;
     private List<Integer> mRootChannels;
-    private List<Node> mNodes;
-    private HashMap<Integer, Boolean> mExpandedChannels;
+    private SparseBooleanArray mExpandedChannels;
+    private ChannelVisibilityFilter mVisibilityFilter;
+    /** The filter bound to the model by the last rebuild, reused when splicing subtrees. */
+    private ChannelVisibilityFilter mBoundFilter;
     private OnUserClickListener mUserClickListener;
     private OnChannelClickListener mChannelClickListener;
 
+    private final SparseArray<Drawable.ConstantState> mTalkStateDrawables = new SparseArray<Drawable.ConstantState>();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private Snapshot mSnapshot;
+    private volatile int mGeneration;
+    private boolean mRebuildPending;
+    /** Callbacks of rebuild requests, run when the next rebuild is swapped in. */
+    private final List<Runnable> mPendingCallbacks = new ArrayList<Runnable>();
+
     public ChannelListAdapter(Context context, IJumbleService service, QRPushToTalkDatabase database, boolean showPinnedOnly) throws RemoteException {
         setHasStableIds(true);
         mContext = context;
         mService = service;
+        mModel = JumbleModelMirror.from(service);
         mDatabase = database;
 
         mRootChannels = new ArrayList<Integer>();
@@ -60,8 +89,9 @@ public class ChannelListAdapter extends RecyclerView.Adapter {
             mRootChannels.add(0);
         }
 
-        mNodes = new LinkedList<Node>();
-        mExpandedChannels = new HashMap<Integer, Boolean>();
+        mSnapshot = Snapshot.EMPTY;
+        mExpandedChannels = new SparseBooleanArray();
+        mVisibilityFilter = new CompanyChannelFilter(QRPushToTalkActivity.nameOfSavedLastLoggedChannel);
         updateChannels();
     }
 
@@ -79,280 +109,106 @@ public class ChannelListAdapter extends RecyclerView.Adapter {
     }
 
     @Override
-    public void onBindViewHolder(RecyclerView.ViewHolder viewHolder, int position) {
-        final Node node = mNodes.get(position);
-
-        if (!nameOfChannel.equals("")) {
-            if (node.isChannel() && !node.getChannel().getName().equals(nameOfChannel) && !node.getChannel().getName().equals("QR-PushToTalk Server")) {
-
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-                ChannelViewHolder cvh = (ChannelViewHolder) viewHolder;
-                cvh.mChannelExpandToggle.setVisibility(View.GONE);
-                cvh.mChannelName.setText("");
-                cvh.mChannelName.setVisibility(View.GONE);
-                cvh.mChannelUserCount.setText("");
-                cvh.mChannelUserCount.setVisibility(View.GONE);
-                cvh.mChannelHolder.setVisibility(View.GONE);
-                cvh.itemView.setVisibility(View.GONE);
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-
-            } else if (node.isUser() && !node.getParent().getChannel().getName().equals(nameOfChannel)) {
+    public void onBindViewHolder(RecyclerView.ViewHolder viewHolder, int position, List payloads) {
+        Node node = mSnapshot.nodes.get(position);
+        if (payloads.isEmpty() || !node.isUser()) {
+            onBindViewHolder(viewHolder, position);
+            return;
+        }
 
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-                UserViewHolder uvh = (UserViewHolder) viewHolder;
-                uvh.mUserName.setText("");
-                uvh.mUserName.setVisibility(View.GONE);
-                uvh.mUserTalkHighlight.setVisibility(View.GONE);
-                uvh.mPicofMic.setVisibility(View.GONE);
-                uvh.mUserHolder.setVisibility(View.GONE);
-                uvh.itemView.setVisibility(View.GONE);
-
-                DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
-                float margin = (node.getDepth() + 1) * TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 25, metrics);
-                uvh.mUserHolder.setPadding((int) margin, 0, uvh.mUserHolder.getPaddingRight(), 0);
-
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-            } else if (node.isChannel()) {
-                final Channel channel = node.getChannel();
-                ChannelViewHolder cvh = (ChannelViewHolder) viewHolder;
-                cvh.itemView.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        if (mChannelClickListener != null) {
-                            mChannelClickListener.onChannelClick(channel);
-                        }
-                    }
-                });
+        int changes = 0;
+        for (Object payload : payloads) {
+            changes |= (Integer) payload;
+        }
+        UserViewHolder uvh = (UserViewHolder) viewHolder;
+        UserState user = getCurrentState(node);
+        if ((changes & UserPayload.NAME) != 0) {
+            uvh.mUserName.setText(user.getName());
+        }
+        if ((changes & (UserPayload.TALK_STATE | UserPayload.MUTE_STATE | UserPayload.AVATAR)) != 0) {
+            bindTalkState(uvh, user, true);
+        }
+    }
 
-                final boolean expandUsable = channel.getSubchannels().size() > 0 ||
-                        channel.getSubchannelUserCount() > 0;
-                cvh.mChannelExpandToggle.setImageResource(node.isExpanded() ?
-                        R.drawable.ic_action_expanded : R.drawable.ic_action_collapsed);
-                cvh.mChannelExpandToggle.setOnClickListener(new View.OnClickListener() {
+    @Override
+    public void onBindViewHolder(RecyclerView.ViewHolder viewHolder, int position) {
+        final Snapshot snapshot = mSnapshot;
+        final Node node = snapshot.nodes.get(position);
+        DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
 
-                    @Override
-                    public void onClick(View v) {
-                        mExpandedChannels.put(channel.getId(), !node.isExpanded());
-                        try {
-                            updateChannels(); // FIXME: very inefficient.
-                        } catch (RemoteException e) {
-                            e.printStackTrace();
-                        }
-                        notifyDataSetChanged();
+        if (node.isChannel()) {
+            final ChannelState channel = node.getChannel();
+            ChannelViewHolder cvh = (ChannelViewHolder) viewHolder;
+            cvh.itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    Channel liveChannel = mModel.getChannel(channel.getId());
+                    if (mChannelClickListener != null && liveChannel != null) {
+                        mChannelClickListener.onChannelClick(liveChannel);
                     }
-                });
-                cvh.mChannelExpandToggle.setEnabled(expandUsable);
-                cvh.mChannelExpandToggle.setVisibility(expandUsable ? View.VISIBLE : View.INVISIBLE);
-
-                cvh.mChannelName.setText(channel.getName());
-
-                int userCount = channel.getSubchannelUserCount();
-                if (node.getChannel().getName().equals("QR-PushToTalk Server"))
-                    cvh.mChannelUserCount.setText("");
-                else {
-                    cvh.mChannelUserCount.setText(String.format("%d", userCount));
-                }
-
-                DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
-                float margin = node.getDepth() * TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 25, metrics);
-                cvh.mChannelHolder.setPadding((int) margin,
-                        cvh.mChannelHolder.getPaddingTop(),
-                        cvh.mChannelHolder.getPaddingRight(),
-                        cvh.mChannelHolder.getPaddingBottom());
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-            } else if (node.isUser()) {
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
                 }
-                final User user = node.getUser();
-                UserViewHolder uvh = (UserViewHolder) viewHolder;
-                uvh.itemView.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        if (mUserClickListener != null) {
-                            mUserClickListener.onUserClick(user);
-                        }
-                    }
-                });
+            });
 
-                uvh.mUserName.setText(user.getName());
-                try {
-                    uvh.mUserName.setTypeface(null, user.getSession() == mService.getSession() ? Typeface.BOLD : Typeface.NORMAL);
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
+            final boolean expandUsable = node.isExpandable();
+            cvh.mChannelExpandToggle.setImageResource(node.isExpanded() ?
+                    R.drawable.ic_action_expanded : R.drawable.ic_action_collapsed);
+            cvh.mChannelExpandToggle.setOnClickListener(new View.OnClickListener() {
 
-                uvh.mUserTalkHighlight.setImageDrawable(getTalkStateDrawable(user));
-
-                DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
-                float margin = (node.getDepth() + 1) * TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 25, metrics);
-                uvh.mUserHolder.setPadding((int) margin,
-                        uvh.mUserHolder.getPaddingTop(),
-                        uvh.mUserHolder.getPaddingRight(),
-                        uvh.mUserHolder.getPaddingBottom());
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-            }
-        } else {
-            if (node.isChannel() && !node.getChannel().getName().equals("Demo Channel") && !node.getChannel().getName().equals("QR-PushToTalk Server")) {
-                ChannelViewHolder cvh = (ChannelViewHolder) viewHolder;
-                cvh.mChannelExpandToggle.setVisibility(View.GONE);
-                cvh.mChannelName.setText("");
-                cvh.mChannelName.setVisibility(View.GONE);
-                cvh.mChannelUserCount.setText("");
-                cvh.mChannelUserCount.setVisibility(View.GONE);
-                cvh.mChannelHolder.setVisibility(View.GONE);
-                cvh.itemView.setVisibility(View.GONE);
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
+                @Override
+                public void onClick(View v) {
+                    toggleExpanded(channel.getId());
                 }
+            });
+            cvh.mChannelExpandToggle.setEnabled(expandUsable);
+            cvh.mChannelExpandToggle.setVisibility(expandUsable ? View.VISIBLE : View.INVISIBLE);
 
-            } else if (node.isUser() && !node.getParent().getChannel().getName().equals("Demo Channel")) {
-                UserViewHolder uvh = (UserViewHolder) viewHolder;
-                uvh.mUserName.setText("");
-                uvh.mUserName.setVisibility(View.GONE);
-                uvh.mUserTalkHighlight.setVisibility(View.GONE);
-                uvh.mPicofMic.setVisibility(View.GONE);
-                uvh.mUserHolder.setVisibility(View.GONE);
-                uvh.itemView.setVisibility(View.GONE);
-
-                DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
-                float margin = (node.getDepth() + 1) * TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 25, metrics);
-                uvh.mUserHolder.setPadding((int) margin,
-                        uvh.mUserHolder.getPaddingTop(),
-                        uvh.mUserHolder.getPaddingRight(),
-                        uvh.mUserHolder.getPaddingBottom());
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-            } else if (node.isChannel()) {
-                final Channel channel = node.getChannel();
-                ChannelViewHolder cvh = (ChannelViewHolder) viewHolder;
-                cvh.itemView.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        if (mChannelClickListener != null) {
-                            mChannelClickListener.onChannelClick(channel);
-                        }
-                    }
-                });
+            cvh.mChannelName.setText(node.getName());
 
-                final boolean expandUsable = channel.getSubchannels().size() > 0 ||
-                        channel.getSubchannelUserCount() > 0;
-                cvh.mChannelExpandToggle.setImageResource(node.isExpanded() ?
-                        R.drawable.ic_action_expanded : R.drawable.ic_action_collapsed);
-                cvh.mChannelExpandToggle.setOnClickListener(new View.OnClickListener() {
+            if (node.getName().equals(CompanyChannelFilter.ROOT_CHANNEL))
+                cvh.mChannelUserCount.setText("");
+            else {
+                cvh.mChannelUserCount.setText(String.format("%d", node.getUserCount()));
+            }
 
-                    @Override
-                    public void onClick(View v) {
-                        mExpandedChannels.put(channel.getId(), !node.isExpanded());
-                        try {
-                            updateChannels(); // FIXME: very inefficient.
-                        } catch (RemoteException e) {
-                            e.printStackTrace();
-                        }
-                        notifyDataSetChanged();
+            float margin = node.getDepth() * TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 25, metrics);
+            cvh.mChannelHolder.setPadding((int) margin,
+                    cvh.mChannelHolder.getPaddingTop(),
+                    cvh.mChannelHolder.getPaddingRight(),
+                    cvh.mChannelHolder.getPaddingBottom());
+        } else if (node.isUser()) {
+            final UserState user = getCurrentState(node);
+            UserViewHolder uvh = (UserViewHolder) viewHolder;
+            uvh.itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    User liveUser = mModel.getUser(user.getSession());
+                    if (mUserClickListener != null && liveUser != null) {
+                        mUserClickListener.onUserClick(liveUser);
                     }
-                });
-
-                cvh.mChannelExpandToggle.setEnabled(expandUsable);
-                cvh.mChannelExpandToggle.setVisibility(expandUsable ? View.VISIBLE : View.INVISIBLE);
-
-                cvh.mChannelName.setText(channel.getName());
-
-                int userCount = channel.getSubchannelUserCount();
-                if (node.getChannel().getName().equals("QR-PushToTalk Server"))
-                    cvh.mChannelUserCount.setText("");
-                else {
-                    cvh.mChannelUserCount.setText(String.format("%d", userCount));
                 }
+            });
 
-                DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
-                float margin = node.getDepth() * TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 25, metrics);
-                cvh.mChannelHolder.setPadding((int) margin,
-                        cvh.mChannelHolder.getPaddingTop(),
-                        cvh.mChannelHolder.getPaddingRight(),
-                        cvh.mChannelHolder.getPaddingBottom());
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-            } else if (node.isUser()) {
-                final User user = node.getUser();
-                UserViewHolder uvh = (UserViewHolder) viewHolder;
-                uvh.itemView.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View v) {
-                        if (mUserClickListener != null) {
-                            mUserClickListener.onUserClick(user);
-                        }
-                    }
-                });
+            uvh.mUserName.setText(node.getName());
+            uvh.mUserName.setTypeface(null, user.getSession() == snapshot.session ? Typeface.BOLD : Typeface.NORMAL);
 
-                uvh.mUserName.setText(user.getName());
-                try {
-                    uvh.mUserName.setTypeface(null, user.getSession() == mService.getSession() ? Typeface.BOLD : Typeface.NORMAL);
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
+            bindTalkState(uvh, user, false);
 
-                uvh.mUserTalkHighlight.setImageDrawable(getTalkStateDrawable(user));
-
-                DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
-                float margin = (node.getDepth() + 1) * TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 25, metrics);
-                uvh.mUserHolder.setPadding((int) margin,
-                        uvh.mUserHolder.getPaddingTop(),
-                        uvh.mUserHolder.getPaddingRight(),
-                        uvh.mUserHolder.getPaddingBottom());
-                try {
-                    updateChannels(); // FIXME: very inefficient.
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-            }
+            float margin = (node.getDepth() + 1) * TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 25, metrics);
+            uvh.mUserHolder.setPadding((int) margin,
+                    uvh.mUserHolder.getPaddingTop(),
+                    uvh.mUserHolder.getPaddingRight(),
+                    uvh.mUserHolder.getPaddingBottom());
         }
-
-
     }
 
     @Override
     public int getItemCount() {
-        return mNodes.size();
+        return mSnapshot.nodes.size();
     }
 
     @Override
     public int getItemViewType(int position) {
-        Node node = mNodes.get(position);
+        Node node = mSnapshot.nodes.get(position);
 
         if (node.isChannel()) {
             return R.layout.channel_row;
@@ -365,84 +221,270 @@ public class ChannelListAdapter extends RecyclerView.Adapter {
 
     @Override
     public long getItemId(int position) {
-        return mNodes.get(position).getId();
+        return mSnapshot.nodes.get(position).getId();
     }
 
-    public void updateChannels() throws RemoteException {
-        mNodes.clear();
-        for (int cid : mRootChannels) {
-            Channel channel = mService.getChannel(cid);
+    /**
+     * Schedules a rebuild of the flattened channel tree on a background thread. The new snapshot
+     * is diffed against the one currently shown and swapped in on the main thread, dispatching
+     * fine-grained change notifications for the rows that differ.
+     */
+    public void updateChannels() {
+        updateChannels(null);
+    }
+
+    /**
+     * @see #updateChannels()
+     * @param callback Run on the main thread once the rebuilt tree has been swapped in. If this
+     *                 rebuild is superseded, it runs once the newer one is.
+     */
+    public void updateChannels(Runnable callback) {
+        final int generation = ++mGeneration;
+        mRebuildPending = true;
+        if (callback != null) mPendingCallbacks.add(callback);
+        final Snapshot base = mSnapshot;
+        int session = -1;
+        try {
+            session = mService.getSession();
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+        final int selfSession = session;
+        final JumbleModelMirror model = mModel;
+        final List<Integer> rootChannels = new ArrayList<Integer>(mRootChannels);
+        final SparseBooleanArray expandedChannels = copyOf(mExpandedChannels);
+        final ChannelVisibilityFilter filter = mVisibilityFilter;
+        sTreeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration) return; // Superseded by a newer request.
+                final ChannelVisibilityFilter boundFilter =
+                        filter != null && model != null ? filter.bind(model) : null;
+                final Snapshot snapshot = buildSnapshot(model, selfSession, rootChannels,
+                        expandedChannels, boundFilter, base.nodes.size());
+                snapshot.buildIndex();
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new NodeDiffCallback(base.nodes, snapshot.nodes));
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration || base != mSnapshot) return;
+                        mRebuildPending = false;
+                        mSnapshot = snapshot;
+                        mBoundFilter = boundFilter;
+                        result.dispatchUpdatesTo(ChannelListAdapter.this);
+                        List<Runnable> callbacks = new ArrayList<Runnable>(mPendingCallbacks);
+                        mPendingCallbacks.clear();
+                        for (Runnable callback : callbacks) {
+                            callback.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Flattens the tree from the mirror's immutable channel and user states, which unlike the
+     * live model objects may be read off the main thread.
+     */
+    private static Snapshot buildSnapshot(JumbleModelMirror model, int session,
+                                          List<Integer> rootChannels,
+                                          SparseBooleanArray expandedChannels,
+                                          ChannelVisibilityFilter filter,
+                                          int sizeHint) {
+        List<Node> nodes = new ArrayList<Node>(Math.max(sizeHint, 16));
+        if (model == null) {
+            // The service doesn't keep a mirror, so there is no state to build from.
+            return new Snapshot(nodes, session);
+        }
+        for (int cid : rootChannels) {
+            ChannelState channel = model.getChannelState(cid);
             if (channel != null) {
-                constructNodes(null, mService.getChannel(cid), 0, mNodes);
+                constructNodes(model, expandedChannels, filter, null, channel, 0, nodes);
             }
         }
+        return new Snapshot(nodes, session);
     }
 
-    public void animateUserStateUpdate(User user, RecyclerView view) {
-        long itemId = user.getSession() | USER_ID_MASK;
-        UserViewHolder uvh = (UserViewHolder) view.findViewHolderForItemId(itemId);
-        if (uvh != null) {
-            Drawable newState = getTalkStateDrawable(user);
-            Drawable oldState = uvh.mUserTalkHighlight.getDrawable().getCurrent();
+    /**
+     * Expands or collapses a channel by splicing only its subtree's rows into or out of the
+     * current snapshot. The new snapshot shares the rows around the subtree with the old one and
+     * shifts its position index by the change in size, so the cost is proportional to the size
+     * of that subtree rather than the whole list.
+     */
+    private void toggleExpanded(int channelId) {
+        int position = getChannelPosition(channelId);
+        if (position < 0) return;
+        List<Node> nodes = mSnapshot.nodes;
+        Node node = nodes.get(position);
+        mExpandedChannels.put(channelId, !node.isExpanded());
+
+        if (mBoundFilter == null && mVisibilityFilter != null && mModel != null) {
+            mBoundFilter = mVisibilityFilter.bind(mModel);
+        }
+        List<Node> subtree = new ArrayList<Node>();
+        constructNodes(mModel, mExpandedChannels, mBoundFilter, node.getParent(),
+                node.getChannel(), node.getDepth(), subtree);
+        if (subtree.isEmpty()) {
+            updateChannels();
+            return;
+        }
 
-            if (!newState.getConstantState().equals(oldState.getConstantState())) {
-                if (Build.VERSION.SDK_INT >= 12) {
-                    FlipDrawable drawable = new FlipDrawable(oldState, newState);
-                    uvh.mUserTalkHighlight.setImageDrawable(drawable);
-                    drawable.start(FLIP_DURATION);
-                } else {
-                    uvh.mUserTalkHighlight.setImageDrawable(newState);
-                }
-            }
+        int end = position + 1;
+        while (end < nodes.size() &&
+                (!nodes.get(end).isChannel() || nodes.get(end).getDepth() > node.getDepth())) {
+            end++;
         }
+        int removed = end - position - 1;
+        int inserted = subtree.size() - 1;
+        mSnapshot = new Snapshot(mSnapshot, position, end - position, subtree);
+
+        notifyItemChanged(position);
+        if (removed > 0) notifyItemRangeRemoved(position + 1, removed);
+        if (inserted > 0) notifyItemRangeInserted(position + 1, inserted);
+
+        // A rebuild in flight was based on the old snapshot and will be discarded; redo it.
+        if (mRebuildPending) updateChannels();
     }
 
-    private Drawable getTalkStateDrawable(User user) {
-        Resources resources = mContext.getResources();
+    private static SparseBooleanArray copyOf(SparseBooleanArray array) {
+        SparseBooleanArray copy = new SparseBooleanArray(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            copy.put(array.keyAt(i), array.valueAt(i));
+        }
+        return copy;
+    }
+
+    /**
+     * Rebinds only the given parts of a user's row, if the user is currently shown.
+     * @param changes A combination of {@link UserPayload} flags.
+     */
+    public void notifyUserChanged(User user, int changes) {
+        int position = getUserPosition(user.getSession());
+        if (position >= 0) {
+            notifyItemChanged(position, changes);
+        }
+    }
+
+    /**
+     * @return The latest state of the user node's user. Talk and mute changes are rebound in
+     * place without a rebuild, so they may be newer than the snapshot.
+     */
+    private UserState getCurrentState(Node node) {
+        UserState state = mModel.getUserState(node.getUser().getSession());
+        return state != null ? state : node.getUser();
+    }
+
+    private void bindTalkState(UserViewHolder uvh, UserState user, boolean animate) {
+        int resource = getTalkStateResource(user);
+        long avatarKey = resource == 0 ? getAvatarKey(user) : 0;
+        Drawable oldState = uvh.mUserTalkHighlight.getDrawable();
+        if (oldState != null && resource == uvh.mTalkStateResource && avatarKey == uvh.mAvatarKey) {
+            return;
+        }
+        uvh.mTalkStateResource = resource;
+        uvh.mAvatarKey = avatarKey;
+
+        Drawable newState = resource != 0 ? getTalkStateDrawable(resource) : getAvatarDrawable(user, avatarKey);
+        if (newState == null) {
+            // The user left before the row was bound.
+            newState = getTalkStateDrawable(R.drawable.outline_circle_talking_off);
+        }
+        if (animate && oldState != null && Build.VERSION.SDK_INT >= 12) {
+            FlipDrawable drawable = new FlipDrawable(oldState.getCurrent(), newState);
+            uvh.mUserTalkHighlight.setImageDrawable(drawable);
+            drawable.start(FLIP_DURATION);
+        } else {
+            uvh.mUserTalkHighlight.setImageDrawable(newState);
+        }
+    }
+
+    /**
+     * @return The outline drawable resource for the user's state, or 0 if their avatar should be
+     * shown instead.
+     */
+    private static int getTalkStateResource(UserState user) {
         if (user.isSelfDeafened()) {
-            return resources.getDrawable(R.drawable.outline_circle_deafened);
+            return R.drawable.outline_circle_deafened;
         } else if (user.isDeafened()) {
-            return resources.getDrawable(R.drawable.outline_circle_server_deafened);
+            return R.drawable.outline_circle_server_deafened;
         } else if (user.isSelfMuted()) {
-            return resources.getDrawable(R.drawable.outline_circle_muted);
+            return R.drawable.outline_circle_muted;
         } else if (user.isMuted()) {
-            return resources.getDrawable(R.drawable.outline_circle_server_muted);
+            return R.drawable.outline_circle_server_muted;
         } else if (user.isSuppressed()) {
-            return resources.getDrawable(R.drawable.outline_circle_suppressed);
+            return R.drawable.outline_circle_suppressed;
         } else if (user.getTalkState() == User.TalkState.TALKING ||
                 user.getTalkState() == User.TalkState.SHOUTING ||
                 user.getTalkState() == User.TalkState.WHISPERING) {
             // TODO: add whisper and shouting resources
-            return resources.getDrawable(R.drawable.outline_circle_talking_on);
+            return R.drawable.outline_circle_talking_on;
+        } else if (user.hasTexture()) {
+            return 0;
         } else {
-            if (user.getTexture() != null) {
-                return new CircleDrawable(mContext.getResources(), user.getTexture());
-            } else {
-                return resources.getDrawable(R.drawable.outline_circle_talking_off);
-            }
+            return R.drawable.outline_circle_talking_off;
         }
     }
 
-    public int getUserPosition(int session) {
-        long itemId = session | USER_ID_MASK;
-        for (int i = 0; i < mNodes.size(); i++) {
-            Node node = mNodes.get(i);
-            if (node.getId() == itemId) {
-                return i;
-            }
+    /**
+     * Returns a drawable for the given talk state resource, inflating it only once per adapter.
+     * Each row gets its own instance from the cached constant state, as a drawable has a single
+     * callback and set of bounds and can't be shared between views.
+     */
+    private Drawable getTalkStateDrawable(int resource) {
+        Drawable.ConstantState state = mTalkStateDrawables.get(resource);
+        if (state == null) {
+            state = mContext.getResources().getDrawable(resource).getConstantState();
+            mTalkStateDrawables.put(resource, state);
         }
-        return -1;
+        return state.newDrawable(mContext.getResources());
     }
 
-    public int getChannelPosition(int channelId) {
-        long itemId = channelId | CHANNEL_ID_MASK;
-        for (int i = 0; i < mNodes.size(); i++) {
-            Node node = mNodes.get(i);
-            if (node.getId() == itemId) {
-                return i;
-            }
+    private static long getAvatarKey(UserState user) {
+        return ((long) user.getSession() << 32) | (user.getTextureKey() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the user's avatar pre-rendered as a circle at the row's avatar size. Renders are
+     * kept in the shared image cache keyed by session and texture hash, so they outlive the
+     * adapter and a changed avatar gets a new entry.
+     * @return The avatar, or null if the user is no longer connected.
+     */
+    private Drawable getAvatarDrawable(UserState state, long avatarKey) {
+        Resources resources = mContext.getResources();
+        ImageCache cache = ImageCache.getInstance(mContext);
+        String key = "avatar:" + avatarKey;
+        Bitmap bitmap = cache.getBitmap(key);
+        if (bitmap == null) {
+            User user = mModel.getUser(state.getSession());
+            if (user == null || user.getTexture() == null) return null;
+            int size = resources.getDimensionPixelSize(R.dimen.user_row_avatar_size);
+            bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+            CircleDrawable circle = new CircleDrawable(resources, user.getTexture());
+            circle.setBounds(0, 0, size, size);
+            circle.draw(new Canvas(bitmap));
+            cache.putBitmap(key, bitmap);
         }
-        return -1;
+        return new BitmapDrawable(resources, bitmap);
+    }
+
+    public int getUserPosition(int session) {
+        return mSnapshot.getPosition(session | USER_ID_MASK);
+    }
+
+    public int getChannelPosition(int channelId) {
+        return mSnapshot.getPosition(channelId | CHANNEL_ID_MASK);
+    }
+
+    /**
+     * Sets the filter deciding which channels and users are materialized in the list.
+     * A null filter shows the whole tree.
+     */
+    public void setVisibilityFilter(ChannelVisibilityFilter filter) {
+        mVisibilityFilter = filter;
+        mBoundFilter = null;
+        updateChannels();
     }
 
     public void setOnUserClickListener(OnUserClickListener listener) {
@@ -453,35 +495,45 @@ public class ChannelListAdapter extends RecyclerView.Adapter {
         mChannelClickListener = listener;
     }
 
-    private void constructNodes(Node parent, Channel channel, int depth,
-                                List<Node> nodes) throws RemoteException {
-        Node channelNode = new Node(parent, depth, channel);
+    private static void constructNodes(JumbleModelMirror model, SparseBooleanArray expandedChannels,
+                                       ChannelVisibilityFilter filter,
+                                       Node parent, ChannelState channel, int depth,
+                                       List<Node> nodes) {
+        if (filter != null && !filter.isChannelVisible(channel)) {
+            return;
+        }
+        Node channelNode = new Node(parent, depth, channel, model.getSubchannelUserCount(channel.getId()));
         nodes.add(channelNode);
 
-        Boolean expandSetting = mExpandedChannels.get(channel.getId());
-        if ((expandSetting == null && channel.getSubchannelUserCount() == 0)
-                || (expandSetting != null && !expandSetting)) {
+        int expandSetting = expandedChannels.indexOfKey(channel.getId());
+        if ((expandSetting < 0 && channelNode.getUserCount() == 0)
+                || (expandSetting >= 0 && !expandedChannels.valueAt(expandSetting))) {
             channelNode.setExpanded(false);
             return;
         }
 
-        for (int uid : channel.getUsers()) {
-            User user = mService.getUser(uid);
-            if (user == null) {
-                continue;
+        if (filter == null || filter.areUsersVisible(channel)) {
+            for (int i = 0; i < channel.getUserCount(); i++) {
+                UserState user = model.getUserState(channel.getUser(i));
+                if (user == null) {
+                    continue;
+                }
+                nodes.add(new Node(channelNode, depth, user));
             }
-            nodes.add(new Node(channelNode, depth, user));
         }
-        for (int cid : channel.getSubchannels()) {
-            Channel subchannel = mService.getChannel(cid);
-            constructNodes(channelNode, subchannel, depth + 1, nodes);
+        for (int i = 0; i < channel.getSubchannelCount(); i++) {
+            ChannelState subchannel = model.getChannelState(channel.getSubchannel(i));
+            if (subchannel != null) {
+                constructNodes(model, expandedChannels, filter, channelNode, subchannel, depth + 1, nodes);
+            }
         }
     }
 
-    public void setService(IJumbleService service) throws RemoteException {
+    public void setService(IJumbleService service) {
         mService = service;
+        mModel = JumbleModelMirror.from(service);
+        mBoundFilter = null;
         updateChannels();
-        notifyDataSetChanged();
     }
 
     private static class UserViewHolder extends RecyclerView.ViewHolder {
@@ -489,6 +541,8 @@ public class ChannelListAdapter extends RecyclerView.Adapter {
         public TextView mUserName;
         public FrameLayout mPicofMic;
         public ImageView mUserTalkHighlight;
+        public int mTalkStateResource = -1;
+        public long mAvatarKey;
 
         public UserViewHolder(View itemView) {
             super(itemView);
@@ -515,24 +569,200 @@ public class ChannelListAdapter extends RecyclerView.Adapter {
         }
     }
 
+    /**
+     * An immutable flattened view of the channel tree. Bind calls only ever read from the
+     * snapshot currently held by the adapter; new snapshots are swapped in whole.
+     *
+     * A spliced snapshot replaces one range of rows of its base and reads the rest through it,
+     * shifting positions past the range. After {@link #MAX_SPLICES} splices in a row the rows
+     * are copied out, so lookups never go through a long chain of bases.
+     */
+    private static class Snapshot {
+        public static final Snapshot EMPTY = new Snapshot(new ArrayList<Node>(), -1);
+        private static final int MAX_SPLICES = 8;
+
+        public final List<Node> nodes;
+        public final int session;
+        private final Snapshot mBase;
+        private final int mStart;
+        private final int mRemoved;
+        private final int mInserted;
+        private final int mSplices;
+        private LongIntHashMap mPositions;
+
+        public Snapshot(List<Node> nodes, int session) {
+            this.nodes = Collections.unmodifiableList(nodes);
+            this.session = session;
+            mBase = null;
+            mStart = mRemoved = mInserted = mSplices = 0;
+        }
+
+        /**
+         * Creates a snapshot replacing the base's rows in [start, start + removed) with the
+         * inserted ones.
+         */
+        public Snapshot(Snapshot base, int start, int removed, List<Node> inserted) {
+            session = base.session;
+            mStart = start;
+            mRemoved = removed;
+            mInserted = inserted.size();
+            if (base.mSplices + 1 < MAX_SPLICES) {
+                nodes = new SplicedList(base.nodes, start, removed, inserted);
+                mBase = base;
+                mSplices = base.mSplices + 1;
+                mPositions = new LongIntHashMap(inserted.size(), -1);
+                for (int i = 0; i < inserted.size(); i++) {
+                    mPositions.put(inserted.get(i).getId(), i);
+                }
+            } else {
+                List<Node> copy = new ArrayList<Node>(base.nodes.size() - removed + inserted.size());
+                copy.addAll(base.nodes.subList(0, start));
+                copy.addAll(inserted);
+                copy.addAll(base.nodes.subList(start + removed, base.nodes.size()));
+                nodes = Collections.unmodifiableList(copy);
+                mBase = null;
+                mSplices = 0;
+            }
+        }
+
+        /**
+         * Builds the position index. Rebuilt snapshots call this on the tree thread before they
+         * are handed to the main thread.
+         */
+        public void buildIndex() {
+            mPositions = new LongIntHashMap(nodes.size(), -1);
+            for (int i = 0; i < nodes.size(); i++) {
+                mPositions.put(nodes.get(i).getId(), i);
+            }
+        }
+
+        /**
+         * @return The adapter position of the node with the given item id, or -1 if absent.
+         * A spliced snapshot only indexes its inserted rows and shifts the base's positions.
+         * Main thread only.
+         */
+        public int getPosition(long itemId) {
+            if (mBase == null) {
+                // Copied out after too many splices; indexed on first use.
+                if (mPositions == null) buildIndex();
+                return mPositions.get(itemId);
+            }
+            int position = mPositions.get(itemId);
+            if (position >= 0) return mStart + position;
+            position = mBase.getPosition(itemId);
+            if (position < mStart) return position;
+            if (position < mStart + mRemoved) return -1;
+            return position - mRemoved + mInserted;
+        }
+    }
+
+    /**
+     * A read-only view of a list with one range of elements replaced.
+     */
+    private static class SplicedList extends AbstractList<Node> {
+        private final List<Node> mBase;
+        private final int mStart;
+        private final int mRemoved;
+        private final List<Node> mInserted;
+
+        public SplicedList(List<Node> base, int start, int removed, List<Node> inserted) {
+            mBase = base;
+            mStart = start;
+            mRemoved = removed;
+            mInserted = inserted;
+        }
+
+        @Override
+        public Node get(int location) {
+            if (location < mStart) return mBase.get(location);
+            if (location < mStart + mInserted.size()) return mInserted.get(location - mStart);
+            return mBase.get(location - mInserted.size() + mRemoved);
+        }
+
+        @Override
+        public int size() {
+            return mBase.size() - mRemoved + mInserted.size();
+        }
+    }
+
+    private static class NodeDiffCallback extends DiffUtil.Callback {
+        private final List<Node> mOldNodes;
+        private final List<Node> mNewNodes;
+
+        public NodeDiffCallback(List<Node> oldNodes, List<Node> newNodes) {
+            mOldNodes = oldNodes;
+            mNewNodes = newNodes;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldNodes.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewNodes.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldNodes.get(oldItemPosition).getId() == mNewNodes.get(newItemPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldNodes.get(oldItemPosition).hasSameContents(mNewNodes.get(newItemPosition));
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            int changes = mOldNodes.get(oldItemPosition).getUserChanges(mNewNodes.get(newItemPosition));
+            return changes != 0 ? changes : null;
+        }
+    }
+
     private static class Node {
         private Node mParent;
-        private Channel mChannel;
-        private User mUser;
+        private ChannelState mChannel;
+        private UserState mUser;
         private int mDepth;
         private boolean mExpanded;
 
-        public Node(Node parent, int depth, Channel channel) {
+        // Rendered state captured at build time, compared to tell whether a row changed.
+        private String mName;
+        private int mUserCount;
+        private boolean mExpandable;
+        private int mTalkState;
+        private int mMuteState;
+        private long mAvatar;
+
+        public Node(Node parent, int depth, ChannelState channel, int userCount) {
             mParent = parent;
             mChannel = channel;
             mDepth = depth;
             mExpanded = true;
+            mName = channel.getName();
+            mUserCount = userCount;
+            mExpandable = channel.getSubchannelCount() > 0 || mUserCount > 0;
         }
 
-        public Node(Node parent, int depth, User user) {
+        public Node(Node parent, int depth, UserState user) {
             mParent = parent;
             mUser = user;
             mDepth = depth;
+            mName = user.getName();
+            mTalkState = user.getTalkState().ordinal();
+            mMuteState = getMuteState(user);
+            mAvatar = user.hasTexture() ? getAvatarKey(user) : 0;
+        }
+
+        private static int getMuteState(UserState user) {
+            int state = user.isSelfDeafened() ? 1 : 0;
+            state = (state << 1) | (user.isDeafened() ? 1 : 0);
+            state = (state << 1) | (user.isSelfMuted() ? 1 : 0);
+            state = (state << 1) | (user.isMuted() ? 1 : 0);
+            state = (state << 1) | (user.isSuppressed() ? 1 : 0);
+            return state;
         }
 
         public boolean isChannel() {
@@ -547,27 +777,38 @@ public class ChannelListAdapter extends RecyclerView.Adapter {
             return mParent;
         }
 
-        public Channel getChannel() {
+        public ChannelState getChannel() {
             return mChannel;
         }
 
-        public User getUser() {
+        public UserState getUser() {
             return mUser;
         }
 
-        public Long getId() {
+        public long getId() {
             if (isChannel()) {
                 return CHANNEL_ID_MASK | mChannel.getId();
-            } else if (isUser()) {
+            } else {
                 return USER_ID_MASK | mUser.getSession();
             }
-            return null;
         }
 
         public int getDepth() {
             return mDepth;
         }
 
+        public String getName() {
+            return mName;
+        }
+
+        public int getUserCount() {
+            return mUserCount;
+        }
+
+        public boolean isExpandable() {
+            return mExpandable;
+        }
+
         public boolean isExpanded() {
             return mExpanded;
         }
@@ -575,5 +816,34 @@ public class ChannelListAdapter extends RecyclerView.Adapter {
         public void setExpanded(boolean expanded) {
             mExpanded = expanded;
         }
+
+        public boolean hasSameContents(Node other) {
+            return mDepth == other.mDepth
+                    && mExpanded == other.mExpanded
+                    && mUserCount == other.mUserCount
+                    && mExpandable == other.mExpandable
+                    && mTalkState == other.mTalkState
+                    && mMuteState == other.mMuteState
+                    && mAvatar == other.mAvatar
+                    && (mName == null ? other.mName == null : mName.equals(other.mName));
+        }
+
+        /**
+         * @return The {@link UserPayload} flags for a user row that only changed in ways that can
+         * be rebound in place, or 0 if the row needs a full rebind.
+         */
+        public int getUserChanges(Node other) {
+            if (!isUser() || !other.isUser() || mDepth != other.mDepth) {
+                return 0;
+            }
+            int changes = 0;
+            if (mTalkState != other.mTalkState) changes |= UserPayload.TALK_STATE;
+            if (mMuteState != other.mMuteState) changes |= UserPayload.MUTE_STATE;
+            if (mAvatar != other.mAvatar) changes |= UserPayload.AVATAR;
+            if (mName == null ? other.mName != null : !mName.equals(other.mName)) {
+                changes |= UserPayload.NAME;
+            }
+            return changes;
+        }
     }
-}
\ No newline at end of file
+}
@@ -33,6 +33,8 @@ import com.terracom.qrpttbeta.channel.actionmode.ChannelActionModeCallback;
 import com.terracom.qrpttbeta.channel.actionmode.UserActionModeCallback;
 import com.terracom.qrpttbeta.db.DatabaseProvider;
 import com.terracom.qrpttbeta.db.QRPushToTalkDatabase;
+import com.terracom.qrpttbeta.util.JumbleEventBatch;
+import com.terracom.qrpttbeta.util.JumbleEventDispatcher;
 import com.terracom.qrpttbeta.util.JumbleServiceFragment;
 
 ;
@@ -44,54 +46,32 @@ public class ChannelListFragment extends JumbleServiceFragment implements UserAc
         public void onDisconnected(JumbleException e) throws RemoteException {
             mChannelView.setAdapter(null);
         }
+    };
 
+    private JumbleEventDispatcher.OnEventBatchListener mEventListener = new JumbleEventDispatcher.OnEventBatchListener() {
         @Override
-        public void onUserJoinedChannel(User user, Channel newChannel, Channel oldChannel) throws RemoteException {
-            mChannelListAdapter.updateChannels();
-            mChannelListAdapter.notifyDataSetChanged();
-            if (getService().getSession() == user.getSession()) {
-                scrollToChannel(newChannel.getId());
+        public void onEventBatch(JumbleEventBatch batch) throws RemoteException {
+            if (batch.hasTreeChanges()) {
+                final JumbleEventBatch.UserMove selfMove = batch.getMove(getService().getSession());
+                if (selfMove != null) {
+                    mChannelListAdapter.updateChannels(new Runnable() {
+                        @Override
+                        public void run() {
+                            scrollToChannel(selfMove.getNewChannel().getId());
+                        }
+                    });
+                } else {
+                    mChannelListAdapter.updateChannels();
+                }
             }
-        }
-
-        @Override
-        public void onChannelAdded(Channel channel) throws RemoteException {
-            mChannelListAdapter.updateChannels();
-            mChannelListAdapter.notifyDataSetChanged();
-        }
-
-        @Override
-        public void onChannelRemoved(Channel channel) throws RemoteException {
-            mChannelListAdapter.updateChannels();
-            mChannelListAdapter.notifyDataSetChanged();
-        }
-
-        @Override
-        public void onChannelStateUpdated(Channel channel) throws RemoteException {
-            mChannelListAdapter.updateChannels();
-            mChannelListAdapter.notifyDataSetChanged();
-        }
 
-        @Override
-        public void onUserConnected(User user) throws RemoteException {
-            mChannelListAdapter.updateChannels();
-            mChannelListAdapter.notifyDataSetChanged();
-        }
-
-        @Override
-        public void onUserRemoved(User user, String reason) throws RemoteException {
-            mChannelListAdapter.updateChannels();
-            mChannelListAdapter.notifyDataSetChanged();
-        }
-
-        @Override
-        public void onUserStateUpdated(User user) throws RemoteException {
-            mChannelListAdapter.animateUserStateUpdate(user, mChannelView);
-        }
-
-        @Override
-        public void onUserTalkStateUpdated(User user) throws RemoteException {
-            mChannelListAdapter.animateUserStateUpdate(user, mChannelView);
+            for (User user : batch.getUpdatedUsers()) {
+                mChannelListAdapter.notifyUserChanged(user,
+                        UserPayload.MUTE_STATE | UserPayload.NAME | UserPayload.AVATAR);
+            }
+            for (User user : batch.getTalkStateUpdatedUsers()) {
+                mChannelListAdapter.notifyUserChanged(user, UserPayload.TALK_STATE);
+            }
         }
     };
 
@@ -143,6 +123,11 @@ public class ChannelListFragment extends JumbleServiceFragment implements UserAc
         return mServiceObserver;
     }
 
+    @Override
+    public JumbleEventDispatcher.OnEventBatchListener getEventBatchListener() {
+        return mEventListener;
+    }
+
     @Override
     public void onServiceBound(IJumbleService service) {
         try {
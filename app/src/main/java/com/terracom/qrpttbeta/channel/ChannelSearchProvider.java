@@ -10,35 +10,32 @@ import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.IBinder;
-import android.os.RemoteException;
 import android.util.Log;
 
 import com.terracom.jumble.IJumbleService;
-import com.terracom.jumble.model.Channel;
-import com.terracom.jumble.model.User;
 import com.terracom.qrpttbeta.Constants;
 import com.terracom.qrpttbeta.R;
 import com.terracom.qrpttbeta.service.QRPushToTalkService;
+import com.terracom.qrpttbeta.util.JumbleModelMirror;
+import com.terracom.qrpttbeta.util.JumbleModelMirror.ChannelState;
+import com.terracom.qrpttbeta.util.JumbleModelMirror.UserState;
+import com.terracom.qrpttbeta.util.NameIndex;
 
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 
 public class ChannelSearchProvider extends ContentProvider {
 
     public static final String INTENT_DATA_CHANNEL = "channel";
     public static final String INTENT_DATA_USER = "user";
 
-    private IJumbleService mService;
-    private final Object mServiceLock = new Object();
+    private static final int DEFAULT_LIMIT = 20;
+
+    private volatile IJumbleService mService;
 
     private ServiceConnection mConn = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             mService = (IJumbleService) service;
-            synchronized (mServiceLock) {
-                mServiceLock.notify();
-            }
         }
 
         @Override
@@ -62,32 +59,30 @@ public class ChannelSearchProvider extends ContentProvider {
         return null;
     }
 
+    /**
+     * Binds the service once for the lifetime of the provider without starting it. The binder
+     * arrives asynchronously whenever the service is running, so queries never wait for it.
+     */
     @Override
     public boolean onCreate() {
+        Intent serviceIntent = new Intent(getContext(), QRPushToTalkService.class);
+        getContext().bindService(serviceIntent, mConn, 0);
         return true;
     }
 
-
+    /**
+     * Answers from the mirror's name indexes, so a query costs about as much as its matches.
+     * The search view's suggestion filter already drops queries superseded while one runs.
+     */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_ID", SearchManager.SUGGEST_COLUMN_INTENT_EXTRA_DATA, SearchManager.SUGGEST_COLUMN_TEXT_1, SearchManager.SUGGEST_COLUMN_ICON_1, SearchManager.SUGGEST_COLUMN_TEXT_2, SearchManager.SUGGEST_COLUMN_INTENT_DATA});
 
-        if (mService == null) {
-            Intent serviceIntent = new Intent(getContext(), QRPushToTalkService.class);
-            getContext().bindService(serviceIntent, mConn, 0);
-
-            synchronized (mServiceLock) {
-                try {
-                    mServiceLock.wait(5000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-
-                if (mService == null) {
-                    Log.v(Constants.TAG, "Failed to connect to service from search provider!");
-                    return null;
-                }
-            }
+        JumbleModelMirror model = JumbleModelMirror.from(mService);
+        if (model == null) {
+            Log.v(Constants.TAG, "Search provider not yet bound to service.");
+            return cursor;
         }
 
         String query = "";
@@ -96,76 +91,47 @@ public class ChannelSearchProvider extends ContentProvider {
             if (x != selectionArgs.length - 1)
                 query += " ";
         }
-
-        query = query.toLowerCase(Locale.getDefault());
-
-        MatrixCursor cursor = new MatrixCursor(new String[]{"_ID", SearchManager.SUGGEST_COLUMN_INTENT_EXTRA_DATA, SearchManager.SUGGEST_COLUMN_TEXT_1, SearchManager.SUGGEST_COLUMN_ICON_1, SearchManager.SUGGEST_COLUMN_TEXT_2, SearchManager.SUGGEST_COLUMN_INTENT_DATA});
-
-        List<Channel> channels;
-        List<User> users;
-        try {
-            channels = channelSearch(mService.getRootChannel(), query);
-            users = userSearch(mService.getRootChannel(), query);
-        } catch (RemoteException e) {
-            e.printStackTrace();
-            return cursor;
-        }
-
-        for (int x = 0; x < channels.size(); x++) {
-            Channel channel = channels.get(x);
-            cursor.addRow(new Object[]{x, INTENT_DATA_CHANNEL, channel.getName(), R.drawable.ic_action_channels, getContext().getString(R.string.search_channel_users, channel.getSubchannelUserCount()), channel.getId()});
-        }
-
-        for (int x = 0; x < users.size(); x++) {
-            User user = users.get(x);
-            cursor.addRow(new Object[]{x, INTENT_DATA_USER, user.getName(), R.drawable.ic_action_user_dark, getContext().getString(R.string.user), user.getSession()});
+        String normalized = NameIndex.normalize(query);
+        int limit = getLimit(uri);
+
+        List<ChannelState> channels = model.searchChannels(query, limit);
+        List<UserState> users = model.searchUsers(query, limit);
+
+        // Prefix matches of either kind rank above substring matches.
+        int rows = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            boolean prefix = pass == 0;
+            for (int x = 0; x < channels.size() && rows < limit; x++) {
+                ChannelState channel = channels.get(x);
+                if (NameIndex.normalize(channel.getName()).startsWith(normalized) == prefix) {
+                    cursor.addRow(new Object[]{rows++, INTENT_DATA_CHANNEL, channel.getName(), R.drawable.ic_action_channels, getContext().getString(R.string.search_channel_users, model.getSubchannelUserCount(channel.getId())), channel.getId()});
+                }
+            }
+            for (int x = 0; x < users.size() && rows < limit; x++) {
+                UserState user = users.get(x);
+                if (NameIndex.normalize(user.getName()).startsWith(normalized) == prefix) {
+                    cursor.addRow(new Object[]{rows++, INTENT_DATA_USER, user.getName(), R.drawable.ic_action_user_dark, getContext().getString(R.string.user), user.getSession()});
+                }
+            }
         }
 
         return cursor;
     }
 
-    private List<User> userSearch(Channel root, String str) throws RemoteException {
-        List<User> list = new LinkedList<User>();
-        userSearch(root, str, list);
-        return list;
-    }
-
-    private void userSearch(Channel root, String str, List<User> users) throws RemoteException {
-        if (root == null) {
-            return;
-        }
-        for (int uid : root.getUsers()) {
-            User user = mService.getUser(uid);
-            if (user != null && user.getName() != null
-                    && user.getName().toLowerCase().contains(str.toLowerCase())) {
-                users.add(user);
+    /**
+     * @return The requested number of suggestions, clamped to [1, DEFAULT_LIMIT], or
+     * DEFAULT_LIMIT if none or an invalid one was given.
+     */
+    private static int getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
+        if (limit != null) {
+            try {
+                return Math.max(1, Math.min(Integer.parseInt(limit.trim()), DEFAULT_LIMIT));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
             }
         }
-        for (int cid : root.getSubchannels()) {
-            Channel channel = mService.getChannel(cid);
-            userSearch(channel, str, users);
-        }
-    }
-
-    private List<Channel> channelSearch(Channel root, String str) throws RemoteException {
-        List<Channel> list = new LinkedList<Channel>();
-        channelSearch(root, str, list);
-        return list;
-    }
-
-    private void channelSearch(Channel root, String str, List<Channel> channels) throws RemoteException {
-        if (root == null) {
-            return;
-        }
-
-        if (root.getName().toLowerCase().contains(str.toLowerCase())) {
-            channels.add(root);
-        }
-
-        for (int cid : root.getSubchannels()) {
-            Channel channel = mService.getChannel(cid);
-            channelSearch(channel, str, channels);
-        }
+        return DEFAULT_LIMIT;
     }
 
     @Override
@@ -0,0 +1,27 @@
+package com.terracom.qrpttbeta.channel;
+
+import com.terracom.qrpttbeta.util.JumbleModelMirror;
+import com.terracom.qrpttbeta.util.JumbleModelMirror.ChannelState;
+
+/**
+ * Decides which parts of the server tree are materialized by {@link ChannelListAdapter}.
+ * Implementations are consulted from a background thread and must not touch the UI.
+ */
+public interface ChannelVisibilityFilter {
+    /**
+     * @return A filter for one build of the tree from the given model, which resolves anything
+     * it needs from the model up front so that the per-channel checks stay cheap.
+     */
+    public ChannelVisibilityFilter bind(JumbleModelMirror model);
+
+    /**
+     * @return true if the channel's row should be shown. Subtrees of hidden channels are skipped
+     * entirely, so a channel leading to a visible one must be visible too.
+     */
+    public boolean isChannelVisible(ChannelState channel);
+
+    /**
+     * @return true if the users in the given visible channel should be shown.
+     */
+    public boolean areUsersVisible(ChannelState channel);
+}
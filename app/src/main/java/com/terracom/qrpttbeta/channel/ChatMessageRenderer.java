@@ -0,0 +1,105 @@
+package com.terracom.qrpttbeta.channel;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Html;
+import android.text.Spanned;
+import android.text.format.DateFormat;
+
+import com.terracom.qrpttbeta.R;
+import com.terracom.qrpttbeta.db.ChatMessage;
+import com.terracom.qrpttbeta.util.MumbleImageGetter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders chat messages into everything a chat row displays, so that binding a row never parses
+ * HTML or formats dates. Rendering happens on a single background thread, in submission order.
+ */
+public class ChatMessageRenderer {
+    private static final String CHAT_DATE_FORMAT = "hh:mm a";
+
+    private static final ExecutorService sRenderExecutor = Executors.newSingleThreadExecutor();
+
+    public interface Callback {
+        /**
+         * Called on the main thread with the rendered messages, in the order given.
+         */
+        public void onMessagesRendered(List<RenderedMessage> messages);
+    }
+
+    /**
+     * A chat message as displayed. Immutable once rendered.
+     */
+    public static class RenderedMessage {
+        public final long id;
+        public final Spanned text;
+        public final String target;
+        public final String time;
+        public final boolean showTarget;
+        public final boolean selfAuthored;
+
+        public RenderedMessage(long id, Spanned text, String target, String time,
+                               boolean showTarget, boolean selfAuthored) {
+            this.id = id;
+            this.text = text;
+            this.target = target;
+            this.time = time;
+            this.showTarget = showTarget;
+            this.selfAuthored = selfAuthored;
+        }
+    }
+
+    private final Context mContext;
+    private final MumbleImageGetter mImageGetter; // Only used on the render thread.
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    public ChatMessageRenderer(Context context) {
+        mContext = context.getApplicationContext();
+        mImageGetter = new MumbleImageGetter(mContext);
+    }
+
+    /**
+     * Renders the messages off the main thread.
+     */
+    public void render(List<ChatMessage> messages, final Callback callback) {
+        final List<ChatMessage> pending = new ArrayList<ChatMessage>(messages);
+        sRenderExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<RenderedMessage> rendered = new ArrayList<RenderedMessage>(pending.size());
+                for (ChatMessage message : pending) {
+                    rendered.add(render(message));
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onMessagesRendered(rendered);
+                    }
+                });
+            }
+        });
+    }
+
+    private RenderedMessage render(ChatMessage message) {
+        String target;
+        if (message.getTargetName() != null) {
+            target = mContext.getString(R.string.chat_message_to, message.getActorName(), message.getTargetName());
+        } else if (message.getActorName() != null) {
+            target = message.getActorName();
+        } else {
+            target = mContext.getString(R.string.unknown);
+        }
+
+        return new RenderedMessage(message.getId(),
+                Html.fromHtml(message.getBody(), mImageGetter, null),
+                target,
+                DateFormat.format(CHAT_DATE_FORMAT, message.getReceivedTime()).toString(),
+                message.isTextMessage(),
+                message.isSelfAuthored());
+    }
+}
@@ -0,0 +1,64 @@
+package com.terracom.qrpttbeta.channel;
+
+import android.util.SparseBooleanArray;
+
+import com.terracom.qrpttbeta.util.JumbleModelMirror;
+import com.terracom.qrpttbeta.util.JumbleModelMirror.ChannelState;
+
+/**
+ * Restricts the channel tree to the root channel and the channel belonging to a single company,
+ * showing only the users of the company channel. Channels the company channel is nested in are
+ * shown too, so that it stays reachable; those are resolved once per build by {@link #bind}.
+ */
+public class CompanyChannelFilter implements ChannelVisibilityFilter {
+    public static final String DEMO_CHANNEL = "Demo Channel";
+    public static final String ROOT_CHANNEL = "QR-PushToTalk Server";
+    private static final int ROOT_CHANNEL_ID = 0;
+    private static final int MAX_DEPTH = 64; // Guards against a cycle in a malformed tree.
+
+    private final String mCompanyChannel;
+    /** Ids of the channels the company channel is nested in, or null if not bound to a model. */
+    private final SparseBooleanArray mAncestors;
+
+    /**
+     * @param companyChannel The name of the company channel to show, or an empty string to fall
+     *                       back to the demo channel.
+     */
+    public CompanyChannelFilter(String companyChannel) {
+        this("".equals(companyChannel) ? DEMO_CHANNEL : companyChannel, null);
+    }
+
+    private CompanyChannelFilter(String companyChannel, SparseBooleanArray ancestors) {
+        mCompanyChannel = companyChannel;
+        mAncestors = ancestors;
+    }
+
+    @Override
+    public CompanyChannelFilter bind(JumbleModelMirror model) {
+        SparseBooleanArray ancestors = new SparseBooleanArray();
+        for (ChannelState channel : model.getChannelStatesNamed(mCompanyChannel)) {
+            int parent = channel.getParent();
+            // Stop at a channel already added, as its own ancestors were added with it.
+            for (int depth = 0; parent >= 0 && depth < MAX_DEPTH && !ancestors.get(parent); depth++) {
+                ancestors.put(parent, true);
+                ChannelState parentState = model.getChannelState(parent);
+                if (parentState == null) break;
+                parent = parentState.getParent();
+            }
+        }
+        return new CompanyChannelFilter(mCompanyChannel, ancestors);
+    }
+
+    @Override
+    public boolean isChannelVisible(ChannelState channel) {
+        return channel.getId() == ROOT_CHANNEL_ID
+                || ROOT_CHANNEL.equals(channel.getName())
+                || mCompanyChannel.equals(channel.getName())
+                || (mAncestors != null && mAncestors.get(channel.getId()));
+    }
+
+    @Override
+    public boolean areUsersVisible(ChannelState channel) {
+        return mCompanyChannel.equals(channel.getName());
+    }
+}
@@ -0,0 +1,17 @@
+package com.terracom.qrpttbeta.channel;
+
+/**
+ * Flags describing which parts of a user row changed, passed as partial update payloads to the
+ * channel list and overlay adapters so only the affected views are rebound.
+ */
+public class UserPayload {
+    public static final int TALK_STATE = 1;
+    public static final int MUTE_STATE = 1 << 1;
+    public static final int NAME = 1 << 2;
+    public static final int AVATAR = 1 << 3;
+
+    public static final int ALL = TALK_STATE | MUTE_STATE | NAME | AVATAR;
+
+    private UserPayload() {
+    }
+}
@@ -19,7 +19,7 @@ import com.terracom.jumble.net.Permissions;
 import com.terracom.qrpttbeta.R;
 import com.terracom.qrpttbeta.channel.ChatTargetProvider;
 import com.terracom.qrpttbeta.channel.comment.UserCommentFragment;
-import com.terracom.qrpttbeta.util.ModelUtils;
+import com.terracom.qrpttbeta.util.JumbleModelMirror;
 import com.terracom.qrpttbeta.util.TintedMenuInflater;
 
 import java.util.List;
@@ -55,7 +55,7 @@ public class UserActionModeCallback extends ChatTargetActionModeCallback {
         actionMode.setSubtitle(R.string.current_chat_target);
 
         try {
-            Channel channel = mService.getChannel(mUser.getChannelId());
+            Channel channel = JumbleModelMirror.resolveChannel(mService, mUser.getChannelId());
             if (channel != null && channel.getPermissions() == 0)
                 mService.requestPermissions(mUser.getChannelId());
         } catch (RemoteException e) {
@@ -70,8 +70,8 @@ public class UserActionModeCallback extends ChatTargetActionModeCallback {
         try {
             boolean self = mUser.getSession() == mService.getSession();
             int perms = mService.getPermissions();
-            Channel channel = mService.getChannel(mUser.getChannelId());
-            int channelPerms = channel.getId() != 0 ? channel.getPermissions() : perms;
+            Channel channel = JumbleModelMirror.resolveChannel(mService, mUser.getChannelId());
+            int channelPerms = channel != null && channel.getId() != 0 ? channel.getPermissions() : perms;
 
             menu.findItem(R.id.context_kick).setVisible(
                     !self && (perms & (Permissions.Kick | Permissions.Ban | Permissions.Write)) > 0);
@@ -214,9 +214,10 @@ public class UserActionModeCallback extends ChatTargetActionModeCallback {
     }
 
     private void showChannelMoveDialog() throws RemoteException {
+        final List<Channel> channels = JumbleModelMirror.resolveChannelList(mService);
+        if (channels.isEmpty()) return;
         AlertDialog.Builder adb = new AlertDialog.Builder(mContext);
         adb.setTitle(R.string.user_menu_move);
-        final List<Channel> channels = ModelUtils.getChannelList(mService.getRootChannel(), mService);
         final CharSequence[] channelNames = new CharSequence[channels.size()];
         for (int i = 0; i < channels.size(); i++) {
             channelNames[i] = channels.get(i).getName();
@@ -3,21 +3,31 @@ package com.terracom.qrpttbeta.channel.comment;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.content.ActivityNotFoundException;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.support.v4.app.DialogFragment;
 import android.view.LayoutInflater;
 import android.view.View;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
+import android.webkit.WebViewClient;
 import android.widget.EditText;
 import android.widget.TabHost;
 
 import com.terracom.jumble.IJumbleService;
 import com.terracom.qrpttbeta.R;
+import com.terracom.qrpttbeta.util.ImageCache;
 import com.terracom.qrpttbeta.util.JumbleServiceProvider;
 
+import java.io.ByteArrayInputStream;
+import java.util.Locale;
+
 public abstract class AbstractCommentFragment extends DialogFragment {
+    private static final int MAX_IMAGE_LENGTH = 256 * 1024; // Larger images are left to the WebView.
 
     private TabHost mTabHost;
     private WebView mCommentView;
@@ -48,6 +58,7 @@ public abstract class AbstractCommentFragment extends DialogFragment {
         View view = inflater.inflate(R.layout.dialog_comment, null, false);
 
         mCommentView = (WebView) view.findViewById(R.id.comment_view);
+        mCommentView.setWebViewClient(new CommentWebViewClient(ImageCache.getInstance(getActivity())));
         mCommentEdit = (EditText) view.findViewById(R.id.comment_edit);
 
         mTabHost = (TabHost) view.findViewById(R.id.comment_tabhost);
@@ -119,4 +130,51 @@ public abstract class AbstractCommentFragment extends DialogFragment {
     public abstract void requestComment(IJumbleService service) throws RemoteException;
 
     public abstract void editComment(IJumbleService service, String comment) throws RemoteException;
+
+    /**
+     * Serves the comment's remote images through the shared image cache, and opens links outside
+     * of the dialog as the WebView does without a client.
+     */
+    private static class CommentWebViewClient extends WebViewClient {
+        private static final String[] IMAGE_EXTENSIONS = {".png", ".jpg", ".jpeg", ".gif", ".webp", ".bmp"};
+        private final ImageCache mImageCache;
+
+        public CommentWebViewClient(ImageCache imageCache) {
+            mImageCache = imageCache;
+        }
+
+        @Override
+        public boolean shouldOverrideUrlLoading(WebView view, String url) {
+            Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(url));
+            try {
+                view.getContext().startActivity(intent);
+            } catch (ActivityNotFoundException e) {
+                e.printStackTrace();
+            }
+            return true;
+        }
+
+        @Override
+        public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
+            if (!url.startsWith("http://") && !url.startsWith("https://")) return null;
+            // Only images are fetched here; anything else is left to the WebView straight away
+            // rather than downloaded twice.
+            byte[] data = mImageCache.getData(ImageCache.getKey(url));
+            if (data == null && isImageUrl(url)) {
+                data = mImageCache.loadData(url, MAX_IMAGE_LENGTH);
+            }
+            if (data == null) return null;
+            return new WebResourceResponse(ImageCache.getMimeType(data), null, new ByteArrayInputStream(data));
+        }
+
+        private static boolean isImageUrl(String url) {
+            String path = Uri.parse(url).getPath();
+            if (path == null) return false;
+            path = path.toLowerCase(Locale.US);
+            for (String extension : IMAGE_EXTENSIONS) {
+                if (path.endsWith(extension)) return true;
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package com.terracom.qrpttbeta.db;
+
+/**
+ * A chat message as persisted in the chat history. Channel and user names are resolved when the
+ * message is logged, so a stored message doesn't depend on the server model it arrived in.
+ */
+public class ChatMessage {
+    private long mId;
+    private long mServerId;
+    private String mActorName;
+    private String mTargetName;
+    private boolean mTextMessage;
+    private boolean mSelfAuthored;
+    private String mBody;
+    private long mReceivedTime;
+
+    public ChatMessage(long id, long serverId, String actorName, String targetName,
+                       boolean textMessage, boolean selfAuthored, String body, long receivedTime) {
+        mId = id;
+        mServerId = serverId;
+        mActorName = actorName;
+        mTargetName = targetName;
+        mTextMessage = textMessage;
+        mSelfAuthored = selfAuthored;
+        mBody = body;
+        mReceivedTime = receivedTime;
+    }
+
+    /**
+     * @return The row id of this message, or -1 if it hasn't been stored yet.
+     */
+    public long getId() {
+        return mId;
+    }
+
+    public void setId(long id) {
+        mId = id;
+    }
+
+    public long getServerId() {
+        return mServerId;
+    }
+
+    public void setServerId(long serverId) {
+        mServerId = serverId;
+    }
+
+    public String getActorName() {
+        return mActorName;
+    }
+
+    /**
+     * @return The name of the channel or user the message was sent to, or null if the message
+     * had no target.
+     */
+    public String getTargetName() {
+        return mTargetName;
+    }
+
+    public boolean isTextMessage() {
+        return mTextMessage;
+    }
+
+    public boolean isSelfAuthored() {
+        return mSelfAuthored;
+    }
+
+    /**
+     * @return The HTML body of the message.
+     */
+    public String getBody() {
+        return mBody;
+    }
+
+    /**
+     * @return The time the message was received, in milliseconds since the epoch.
+     */
+    public long getReceivedTime() {
+        return mReceivedTime;
+    }
+}
@@ -32,4 +32,32 @@ public interface QRPushToTalkDatabase {
     public void addLocalIgnoredUser(long serverId, int userId);
 
     public void removeLocalIgnoredUser(long serverId, int userId);
+
+    /**
+     * Stores the messages in a single transaction, assigning each its row id.
+     */
+    public void addChatMessages(List<ChatMessage> messages);
+
+    /**
+     * @return Up to limit of the server's messages older than the given id, oldest first.
+     */
+    public List<ChatMessage> getChatMessagesBefore(long serverId, long beforeId, int limit);
+
+    /**
+     * @return Up to limit of the server's messages newer than the given id, oldest first.
+     */
+    public List<ChatMessage> getChatMessagesAfter(long serverId, long afterId, int limit);
+
+    /**
+     * @return Up to limit of the server's most recent messages containing every word of the
+     * query, oldest first.
+     */
+    public List<ChatMessage> searchChatMessages(long serverId, String query, int limit);
+
+    public void clearChatMessages(long serverId);
+
+    /**
+     * Deletes all but the server's most recent maxMessages messages.
+     */
+    public void trimChatMessages(long serverId, int maxMessages);
 }
@@ -5,13 +5,17 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.terracom.jumble.model.Server;
 import com.terracom.qrpttbeta.Constants;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
 
 public class QRPushToTalkSQLiteDatabase extends SQLiteOpenHelper implements QRPushToTalkDatabase {
     public static final String DATABASE_NAME = "mumble.db";
@@ -80,14 +84,61 @@ public class QRPushToTalkSQLiteDatabase extends SQLiteOpenHelper implements QRPu
             + "CONSTRAINT server_user UNIQUE(" + LOCAL_IGNORE_SERVER + "," + LOCAL_IGNORE_USER + ")"
             + ");";
 
+    public static final String TABLE_CHAT = "chat";
+    public static final String CHAT_ID = "_id";
+    public static final String CHAT_SERVER = "server";
+    public static final String CHAT_ACTOR_NAME = "actor_name";
+    public static final String CHAT_TARGET_NAME = "target_name";
+    public static final String CHAT_TEXT_MESSAGE = "text_message";
+    public static final String CHAT_SELF = "self";
+    public static final String CHAT_BODY = "body";
+    public static final String CHAT_RECEIVED = "received";
+    public static final String TABLE_CHAT_CREATE_SQL = "CREATE TABLE IF NOT EXISTS `" + TABLE_CHAT + "` ("
+            + "`" + CHAT_ID + "` INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + "`" + CHAT_SERVER + "` INTEGER NOT NULL,"
+            + "`" + CHAT_ACTOR_NAME + "` TEXT,"
+            + "`" + CHAT_TARGET_NAME + "` TEXT,"
+            + "`" + CHAT_TEXT_MESSAGE + "` INTEGER NOT NULL,"
+            + "`" + CHAT_SELF + "` INTEGER NOT NULL,"
+            + "`" + CHAT_BODY + "` TEXT NOT NULL,"
+            + "`" + CHAT_RECEIVED + "` INTEGER NOT NULL"
+            + ");";
+    private static final Pattern HTML_TAG_PATTERN = Pattern.compile("<[^>]*>");
+    public static final String[] CHAT_COLUMNS = new String[]{CHAT_ID, CHAT_SERVER,
+            CHAT_ACTOR_NAME, CHAT_TARGET_NAME, CHAT_TEXT_MESSAGE, CHAT_SELF, CHAT_BODY,
+            CHAT_RECEIVED};
+
+    public static final String INDEX_CHAT_SERVER_CREATE_SQL = "CREATE INDEX IF NOT EXISTS chat_server_id ON "
+            + TABLE_CHAT + " (" + CHAT_SERVER + "," + CHAT_ID + ");";
+
+    public static final String TABLE_CHAT_FTS = "chat_fts";
+    public static final String CHAT_FTS_BODY = "body";
+    public static final String TABLE_CHAT_FTS_CREATE_SQL = "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_CHAT_FTS
+            + " USING fts4(" + CHAT_FTS_BODY + ");";
+
     public static final Integer PRE_FAVOURITES_DB_VERSION = 2;
     public static final Integer PRE_TOKENS_DB_VERSION = 3;
     public static final Integer PRE_COMMENTS_DB_VERSION = 4;
     public static final Integer PRE_LOCAL_MUTE_DB_VERSION = 5;
     public static final Integer PRE_LOCAL_IGNORE_DB_VERSION = 6;
-    public static final Integer CURRENT_DB_VERSION = 7;
+    public static final Integer PRE_CHAT_DB_VERSION = 7;
+    public static final Integer PRE_CHAT_FTS_DB_VERSION = 8;
+    public static final Integer CURRENT_DB_VERSION = 9;
+
+    private static QRPushToTalkSQLiteDatabase sInstance;
+
+    /**
+     * @return The app's database, shared by every component so that they use one connection and
+     * one upgrade path. It stays open for the life of the process.
+     */
+    public static synchronized QRPushToTalkSQLiteDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QRPushToTalkSQLiteDatabase(context.getApplicationContext());
+        }
+        return sInstance;
+    }
 
-    public QRPushToTalkSQLiteDatabase(Context context) {
+    private QRPushToTalkSQLiteDatabase(Context context) {
         super(context, DATABASE_NAME, null, CURRENT_DB_VERSION);
     }
 
@@ -103,6 +154,9 @@ public class QRPushToTalkSQLiteDatabase extends SQLiteOpenHelper implements QRPu
         db.execSQL(TABLE_COMMENTS_CREATE_SQL);
         db.execSQL(TABLE_LOCAL_MUTE_CREATE_SQL);
         db.execSQL(TABLE_LOCAL_IGNORE_CREATE_SQL);
+        db.execSQL(TABLE_CHAT_CREATE_SQL);
+        db.execSQL(INDEX_CHAT_SERVER_CREATE_SQL);
+        db.execSQL(TABLE_CHAT_FTS_CREATE_SQL);
     }
 
     @Override
@@ -130,6 +184,43 @@ public class QRPushToTalkSQLiteDatabase extends SQLiteOpenHelper implements QRPu
         if (oldVersion <= PRE_LOCAL_IGNORE_DB_VERSION) {
             db.execSQL(TABLE_LOCAL_IGNORE_CREATE_SQL);
         }
+
+        if (oldVersion <= PRE_CHAT_DB_VERSION) {
+            db.execSQL(TABLE_CHAT_CREATE_SQL);
+            db.execSQL(INDEX_CHAT_SERVER_CREATE_SQL);
+        }
+
+        if (oldVersion <= PRE_CHAT_FTS_DB_VERSION) {
+            db.execSQL(TABLE_CHAT_FTS_CREATE_SQL);
+            backfillChatFts(db);
+        }
+    }
+
+    /**
+     * Indexes the existing chat history, stripped of markup like new messages are. Runs within
+     * the upgrade's transaction.
+     */
+    private static void backfillChatFts(SQLiteDatabase db) {
+        Cursor cursor = db.query(TABLE_CHAT, new String[]{CHAT_ID, CHAT_BODY}, null, null, null, null, null);
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_CHAT_FTS
+                + " (docid, " + CHAT_FTS_BODY + ") VALUES (?, ?)");
+        try {
+            while (cursor.moveToNext()) {
+                insert.bindLong(1, cursor.getLong(0));
+                insert.bindString(2, stripTags(cursor.getString(1)));
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return The message body as indexed for search, without its HTML tags.
+     */
+    private static String stripTags(String body) {
+        return body != null ? HTML_TAG_PATTERN.matcher(body).replaceAll(" ") : "";
     }
 
     @Override
@@ -208,6 +299,7 @@ public class QRPushToTalkSQLiteDatabase extends SQLiteOpenHelper implements QRPu
                 new String[]{String.valueOf(server.getId())});
         getWritableDatabase().delete(TABLE_LOCAL_IGNORE, LOCAL_IGNORE_SERVER + "=?",
                 new String[]{String.valueOf(server.getId())});
+        clearChatMessages(server.getId());
     }
 
     public List<Integer> getPinnedChannels(long serverId) {
@@ -309,4 +401,134 @@ public class QRPushToTalkSQLiteDatabase extends SQLiteOpenHelper implements QRPu
                 new String[]{String.valueOf(serverId), String.valueOf(userId)});
 
     }
+
+    @Override
+    public void addChatMessages(List<ChatMessage> messages) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            ContentValues ftsValues = new ContentValues();
+            for (ChatMessage message : messages) {
+                values.put(CHAT_SERVER, message.getServerId());
+                values.put(CHAT_ACTOR_NAME, message.getActorName());
+                values.put(CHAT_TARGET_NAME, message.getTargetName());
+                values.put(CHAT_TEXT_MESSAGE, message.isTextMessage() ? 1 : 0);
+                values.put(CHAT_SELF, message.isSelfAuthored() ? 1 : 0);
+                values.put(CHAT_BODY, message.getBody());
+                values.put(CHAT_RECEIVED, message.getReceivedTime());
+                message.setId(db.insert(TABLE_CHAT, null, values));
+
+                ftsValues.put("docid", message.getId());
+                ftsValues.put(CHAT_FTS_BODY, stripTags(message.getBody()));
+                db.insert(TABLE_CHAT_FTS, null, ftsValues);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public List<ChatMessage> getChatMessagesBefore(long serverId, long beforeId, int limit) {
+        Cursor cursor = getReadableDatabase().query(TABLE_CHAT, CHAT_COLUMNS,
+                CHAT_SERVER + "=? AND " + CHAT_ID + "<?",
+                new String[]{String.valueOf(serverId), String.valueOf(beforeId)},
+                null, null, CHAT_ID + " DESC", String.valueOf(limit));
+        List<ChatMessage> messages = readChatMessages(cursor);
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    @Override
+    public List<ChatMessage> getChatMessagesAfter(long serverId, long afterId, int limit) {
+        Cursor cursor = getReadableDatabase().query(TABLE_CHAT, CHAT_COLUMNS,
+                CHAT_SERVER + "=? AND " + CHAT_ID + ">?",
+                new String[]{String.valueOf(serverId), String.valueOf(afterId)},
+                null, null, CHAT_ID + " ASC", String.valueOf(limit));
+        return readChatMessages(cursor);
+    }
+
+    @Override
+    public List<ChatMessage> searchChatMessages(long serverId, String query, int limit) {
+        String match = toFtsQuery(query);
+        if (match.length() == 0) return new ArrayList<ChatMessage>();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT c." + TextUtils.join(", c.", CHAT_COLUMNS)
+                        + " FROM " + TABLE_CHAT + " c JOIN " + TABLE_CHAT_FTS + " f ON c." + CHAT_ID + " = f.docid"
+                        + " WHERE f." + CHAT_FTS_BODY + " MATCH ? AND c." + CHAT_SERVER + "=?"
+                        + " ORDER BY c." + CHAT_ID + " DESC LIMIT " + limit,
+                new String[]{match, String.valueOf(serverId)});
+        List<ChatMessage> messages = readChatMessages(cursor);
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Turns free text into an FTS query matching messages that contain every word, each word
+     * also matching as a prefix. Operators and punctuation are dropped.
+     */
+    private static String toFtsQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String term : query.split("[^\\p{L}\\p{N}]+")) {
+            if (term.length() == 0) continue;
+            if (match.length() > 0) match.append(' ');
+            match.append(term).append('*');
+        }
+        return match.toString();
+    }
+
+    @Override
+    public void clearChatMessages(long serverId) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_CHAT_FTS, "docid IN (SELECT " + CHAT_ID + " FROM " + TABLE_CHAT
+                    + " WHERE " + CHAT_SERVER + "=?)", new String[]{String.valueOf(serverId)});
+            db.delete(TABLE_CHAT, CHAT_SERVER + "=?", new String[]{String.valueOf(serverId)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void trimChatMessages(long serverId, int maxMessages) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // The id of the newest message past the limit, found through the server index.
+            Cursor cursor = db.query(TABLE_CHAT, new String[]{CHAT_ID}, CHAT_SERVER + "=?",
+                    new String[]{String.valueOf(serverId)}, null, null, CHAT_ID + " DESC",
+                    maxMessages + ",1");
+            long lastId = cursor.moveToFirst() ? cursor.getLong(0) : -1;
+            cursor.close();
+            if (lastId >= 0) {
+                String[] args = new String[]{String.valueOf(serverId), String.valueOf(lastId)};
+                db.delete(TABLE_CHAT_FTS, "docid IN (SELECT " + CHAT_ID + " FROM " + TABLE_CHAT
+                        + " WHERE " + CHAT_SERVER + "=? AND " + CHAT_ID + "<=?)", args);
+                db.delete(TABLE_CHAT, CHAT_SERVER + "=? AND " + CHAT_ID + "<=?", args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static List<ChatMessage> readChatMessages(Cursor cursor) {
+        List<ChatMessage> messages = new ArrayList<ChatMessage>(cursor.getCount());
+        cursor.moveToFirst();
+        while (!cursor.isAfterLast()) {
+            messages.add(new ChatMessage(cursor.getLong(0),
+                    cursor.getLong(1),
+                    cursor.getString(2),
+                    cursor.getString(3),
+                    cursor.getInt(4) != 0,
+                    cursor.getInt(5) != 0,
+                    cursor.getString(6),
+                    cursor.getLong(7)));
+            cursor.moveToNext();
+        }
+        cursor.close();
+        return messages;
+    }
 }
@@ -15,8 +15,9 @@ public class FavouriteServerAdapter extends ServerAdapter<Server> {
 
     private FavouriteServerAdapterMenuListener mListener;
 
-    public FavouriteServerAdapter(Context context, List<Server> servers, FavouriteServerAdapterMenuListener listener) {
-        super(context, R.layout.server_list_row, servers);
+    public FavouriteServerAdapter(Context context, List<Server> servers, ServerMonitor monitor,
+                                  FavouriteServerAdapterMenuListener listener) {
+        super(context, R.layout.server_list_row, servers, monitor);
         mListener = listener;
     }
 
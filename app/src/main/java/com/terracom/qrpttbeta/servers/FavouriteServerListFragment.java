@@ -17,6 +17,7 @@ import android.widget.GridView;
 
 import com.terracom.jumble.model.Server;
 import com.terracom.qrpttbeta.R;
+import com.terracom.qrpttbeta.Settings;
 import com.terracom.qrpttbeta.db.DatabaseProvider;
 import com.terracom.qrpttbeta.db.PublicServer;
 
@@ -28,12 +29,20 @@ public class FavouriteServerListFragment extends Fragment implements OnItemClick
     private DatabaseProvider mDatabaseProvider;
     private GridView mServerGrid;
     private ServerAdapter mServerAdapter;
+    private ServerMonitor mServerMonitor;
     public static boolean myEditedflag = false;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setHasOptionsMenu(true);
+        mServerMonitor = new ServerMonitor();
+        mServerMonitor.setListener(new ServerMonitor.OnServersUpdatedListener() {
+            @Override
+            public void onServersUpdated() {
+                if (mServerAdapter != null) mServerAdapter.notifyDataSetChanged();
+            }
+        });
     }
 
     @Override
@@ -68,7 +77,15 @@ public class FavouriteServerListFragment extends Fragment implements OnItemClick
     @Override
     public void onResume() {
         super.onResume();
+        PingCache.getInstance().setTtl(Settings.getInstance(getActivity()).getPingInterval());
         updateServers();
+        mServerMonitor.start();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        mServerMonitor.stop();
     }
 
     @Override
@@ -106,6 +123,7 @@ public class FavouriteServerListFragment extends Fragment implements OnItemClick
             public void onClick(DialogInterface dialog, int which) {
                 mDatabaseProvider.getDatabase().removeServer(server);
                 mServerAdapter.remove(server);
+                mServerMonitor.setServers(getServers());
             }
         });
         alertBuilder.setNegativeButton(android.R.string.cancel, null);
@@ -114,7 +132,8 @@ public class FavouriteServerListFragment extends Fragment implements OnItemClick
 
     public void updateServers() {
         List<Server> servers = getServers();
-        mServerAdapter = new FavouriteServerAdapter(getActivity(), servers, this);
+        mServerMonitor.setServers(servers);
+        mServerAdapter = new FavouriteServerAdapter(getActivity(), servers, mServerMonitor, this);
         mServerGrid.setAdapter(mServerAdapter);
     }
 
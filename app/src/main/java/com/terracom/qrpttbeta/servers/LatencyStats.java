@@ -0,0 +1,112 @@
+package com.terracom.qrpttbeta.servers;
+
+import java.util.Arrays;
+
+/**
+ * Round trip statistics of a server over its last {@link #CAPACITY} pings, kept in a ring
+ * buffer. Lost pings take up a slot, so loss is measured over the same window. The smoothed
+ * latency and jitter follow TCP's SRTT and RTP's interarrival jitter (RFC 6298, RFC 3550).
+ * Not thread safe.
+ */
+public class LatencyStats {
+    public static final int CAPACITY = 32;
+    private static final int LOST = -1;
+    private static final float EWMA_WEIGHT = 1 / 8f;
+    private static final float JITTER_WEIGHT = 1 / 16f;
+
+    private final int[] mSamples = new int[CAPACITY];
+    private final int[] mSorted = new int[CAPACITY];
+    private int mNext;
+    private int mCount;
+    private float mEwma = -1;
+    private float mJitter;
+    private int mLastRtt = LOST;
+
+    /**
+     * Records a ping answered after the given round trip time, in ms.
+     */
+    public void addSample(int rtt) {
+        if (mEwma < 0) {
+            mEwma = rtt;
+        } else {
+            mEwma += (rtt - mEwma) * EWMA_WEIGHT;
+        }
+        if (mLastRtt != LOST) {
+            mJitter += (Math.abs(rtt - mLastRtt) - mJitter) * JITTER_WEIGHT;
+        }
+        mLastRtt = rtt;
+        add(rtt);
+    }
+
+    /**
+     * Records a ping that went unanswered. Jitter resumes from the next two answered pings, as
+     * the variation across a gap says nothing about the link.
+     */
+    public void addLoss() {
+        mLastRtt = LOST;
+        add(LOST);
+    }
+
+    private void add(int sample) {
+        mSamples[mNext] = sample;
+        mNext = (mNext + 1) % CAPACITY;
+        if (mCount < CAPACITY) mCount++;
+    }
+
+    /**
+     * @return The number of pings in the window, answered or not.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return Whether any ping has ever been answered.
+     */
+    public boolean hasLatency() {
+        return mEwma >= 0;
+    }
+
+    /**
+     * @return The exponentially weighted moving average of the round trip time in ms, or -1 if
+     * no ping has been answered.
+     */
+    public int getEwma() {
+        return Math.round(mEwma);
+    }
+
+    /**
+     * @return The smoothed variation between consecutive round trip times in ms.
+     */
+    public int getJitter() {
+        return Math.round(mJitter);
+    }
+
+    /**
+     * @param percentile From 0 to 100.
+     * @return The round trip time in ms below which the given share of answered pings in the
+     * window fall, using the nearest rank, or -1 if none was answered.
+     */
+    public int getPercentile(int percentile) {
+        int answered = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mSamples[i] != LOST) mSorted[answered++] = mSamples[i];
+        }
+        if (answered == 0) return -1;
+        Arrays.sort(mSorted, 0, answered);
+        int rank = (int) Math.ceil(percentile / 100f * answered);
+        return mSorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * @return The share of pings in the window that went unanswered, from 0 to 1.
+     */
+    public float getLoss() {
+        if (mCount == 0) return 0;
+        int lost = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mSamples[i] == LOST) lost++;
+        }
+        return (float) lost / mCount;
+    }
+}
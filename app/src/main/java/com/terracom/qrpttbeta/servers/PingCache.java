@@ -0,0 +1,117 @@
+package com.terracom.qrpttbeta.servers;
+
+import android.os.SystemClock;
+
+import com.terracom.jumble.model.Server;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A process-wide cache of ping results, keyed by host and port so that every list showing a
+ * server, and every copy of it loaded from the database, shares one entry. An entry is fresh
+ * for the TTL after its last result, during which the server needn't be pinged again. Entries
+ * that go without a result for {@link #EXPIRY}, such as those of deleted servers, are dropped.
+ */
+public class PingCache {
+    public static final long DEFAULT_TTL = 2000; // ms
+    public static final long EXPIRY = 5 * 60 * 1000; // ms
+
+    private static PingCache sInstance;
+
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private long mTtl = DEFAULT_TTL;
+    private long mLastPruneTime;
+
+    public static synchronized PingCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new PingCache();
+        }
+        return sInstance;
+    }
+
+    private PingCache() {
+    }
+
+    public static String getKey(Server server) {
+        String host = server.getHost() != null ? server.getHost().toLowerCase(Locale.US) : "";
+        return host + ":" + server.getPort();
+    }
+
+    /**
+     * Sets how long a result stays fresh, in ms.
+     */
+    public synchronized void setTtl(long ttl) {
+        mTtl = ttl;
+    }
+
+    public synchronized long getTtl() {
+        return mTtl;
+    }
+
+    /**
+     * Records the result of a ping of the server.
+     */
+    public synchronized void put(Server server, ServerInfoResponse response) {
+        String key = getKey(server);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(key, entry);
+        }
+        if (response.isDummy()) {
+            entry.mStats.addLoss();
+        } else {
+            entry.mStats.addSample(response.getLatency());
+        }
+        entry.mResponse = response;
+        entry.mTime = SystemClock.elapsedRealtime();
+        prune(entry.mTime);
+    }
+
+    /**
+     * Drops the entries that have expired, at most once per TTL.
+     */
+    private void prune(long now) {
+        if (now - mLastPruneTime < mTtl) return;
+        mLastPruneTime = now;
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().mTime > EXPIRY) iterator.remove();
+        }
+    }
+
+    /**
+     * @return The latest response of the server, which is a dummy if its last ping failed, or
+     * null if it has no result.
+     */
+    public synchronized ServerInfoResponse getResponse(Server server) {
+        Entry entry = mEntries.get(getKey(server));
+        return entry != null ? entry.mResponse : null;
+    }
+
+    /**
+     * @return The latency statistics of the server, or null if it has no result.
+     */
+    public synchronized LatencyStats getStats(Server server) {
+        Entry entry = mEntries.get(getKey(server));
+        return entry != null ? entry.mStats : null;
+    }
+
+    /**
+     * @return The time in ms until the server's result goes stale, or 0 if it already has.
+     */
+    public synchronized long getTimeToStale(Server server) {
+        Entry entry = mEntries.get(getKey(server));
+        if (entry == null) return 0;
+        return Math.max(entry.mTime + mTtl - SystemClock.elapsedRealtime(), 0);
+    }
+
+    private static class Entry {
+        private final LatencyStats mStats = new LatencyStats();
+        private ServerInfoResponse mResponse;
+        private long mTime; // SystemClock.elapsedRealtime()
+    }
+}
@@ -1,7 +1,6 @@
 package com.terracom.qrpttbeta.servers;
 
 import android.content.Context;
-import android.os.Build;
 import android.support.v7.widget.PopupMenu;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
@@ -17,23 +16,21 @@ import com.terracom.qrpttbeta.R;
 
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public abstract class ServerAdapter<E extends Server> extends ArrayAdapter<E> {
-    private static final int MAX_ACTIVE_PINGS = 50;
-
-    private ConcurrentHashMap<Server, ServerInfoResponse> mInfoResponses = new ConcurrentHashMap<Server, ServerInfoResponse>();
-    private ExecutorService mPingExecutor = Executors.newFixedThreadPool(MAX_ACTIVE_PINGS);
+    private ServerMonitor mMonitor;
     private int mViewResource;
 
     private final Random randNumber = new Random();
     private final int randUserNumber = randNumber.nextInt(26) + 27;
 
-    public ServerAdapter(Context context, int viewResource, List<E> servers) {
+    /**
+     * @param monitor The monitor pinging the servers, whose results are shown.
+     */
+    public ServerAdapter(Context context, int viewResource, List<E> servers, ServerMonitor monitor) {
         super(context, 0, servers);
         mViewResource = viewResource;
+        mMonitor = monitor;
     }
 
     @Override
@@ -52,7 +49,8 @@ public abstract class ServerAdapter<E extends Server> extends ArrayAdapter<E> {
 
         final E server = getItem(position);
 
-        ServerInfoResponse infoResponse = mInfoResponses.get(server);
+        ServerInfoResponse infoResponse = mMonitor.getResponse(server);
+        LatencyStats stats = mMonitor.getStats(server);
         boolean requestExists = infoResponse != null;
         boolean requestFailure = infoResponse != null && infoResponse.isDummy();
 
@@ -76,6 +74,7 @@ public abstract class ServerAdapter<E extends Server> extends ArrayAdapter<E> {
         TextView serverVersionText = (TextView) view.findViewById(R.id.server_row_version_status);
         TextView serverLatencyText = (TextView) view.findViewById(R.id.server_row_latency);
         TextView serverUsersText = (TextView) view.findViewById(R.id.server_row_usercount);
+        TextView serverStatsText = (TextView) view.findViewById(R.id.server_row_latency_stats);
         ProgressBar serverInfoProgressBar = (ProgressBar) view.findViewById(R.id.server_row_ping_progress);
 
         serverVersionText.setVisibility(!requestExists ? View.INVISIBLE : View.VISIBLE);
@@ -88,26 +87,21 @@ public abstract class ServerAdapter<E extends Server> extends ArrayAdapter<E> {
             serverVersionText.setText("Status: " + getContext().getString(R.string.online) + "  ");
             //serverUsersText.setText("Users: " + infoResponse.getCurrentUsers() + "/" + infoResponse.getMaximumUsers());
             serverUsersText.setText("Users: " + (int)((randUserNumber + infoResponse.getCurrentUsers())/10 + randUserNumber) + "/" + infoResponse.getMaximumUsers());
-            serverLatencyText.setText(infoResponse.getLatency() + "ms");
+            serverLatencyText.setText(stats.getEwma() + "ms");
         } else if (requestFailure) {
             serverVersionText.setText("Status: Offline");
             serverUsersText.setText("");
             serverLatencyText.setText("");
         }
 
-        if (infoResponse == null) {
-            ServerInfoTask task = new ServerInfoTask() {
-                protected void onPostExecute(ServerInfoResponse result) {
-                    super.onPostExecute(result);
-                    mInfoResponses.put(server, result);
-                    notifyDataSetChanged();
-                }
-            };
-
-            if (Build.VERSION.SDK_INT >= 11) {
-                task.executeOnExecutor(mPingExecutor, server);
+        if (serverStatsText != null) {
+            if (stats != null && stats.hasLatency()) {
+                serverStatsText.setVisibility(View.VISIBLE);
+                serverStatsText.setText(getContext().getString(R.string.server_latency_stats,
+                        stats.getPercentile(50), stats.getPercentile(95), stats.getJitter(),
+                        Math.round(stats.getLoss() * 100)));
             } else {
-                task.execute(server);
+                serverStatsText.setVisibility(View.GONE);
             }
         }
 
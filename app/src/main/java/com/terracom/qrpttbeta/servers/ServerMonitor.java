@@ -0,0 +1,114 @@
+package com.terracom.qrpttbeta.servers;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.terracom.jumble.model.Server;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the results of a set of servers fresh while started, by pinging each whenever its entry
+ * in the {@link PingCache} goes stale. Results are recorded in the cache, so results from
+ * earlier screens show straight away and servers pinged recently aren't pinged again.
+ * Main thread only.
+ */
+public class ServerMonitor {
+    private static final long MIN_DELAY = 100; // ms
+
+    public interface OnServersUpdatedListener {
+        /**
+         * Called after servers got new results, at most once per message loop iteration.
+         */
+        public void onServersUpdated();
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final PingCache mCache = PingCache.getInstance();
+    private final List<Server> mServers = new ArrayList<Server>();
+    private final Set<String> mPending = new HashSet<String>();
+    private OnServersUpdatedListener mListener;
+    private boolean mRunning;
+    private boolean mUpdatePosted;
+
+    private final Runnable mPingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long delay = mCache.getTtl();
+            for (Server server : mServers) {
+                long timeToStale = mCache.getTimeToStale(server);
+                if (timeToStale > 0) {
+                    delay = Math.min(delay, timeToStale);
+                } else if (mPending.add(PingCache.getKey(server))) {
+                    // Servers still awaiting a reply from an earlier round are skipped.
+                    ServerPinger.getInstance().ping(server, mPingListener);
+                }
+            }
+            mHandler.postDelayed(this, Math.max(delay, MIN_DELAY));
+        }
+    };
+
+    private final ServerPinger.OnPingResultListener mPingListener = new ServerPinger.OnPingResultListener() {
+        @Override
+        public void onPingResult(Server server, ServerInfoResponse response) {
+            mPending.remove(PingCache.getKey(server));
+            mCache.put(server, response);
+            postUpdate();
+        }
+    };
+
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mUpdatePosted = false;
+            if (mListener != null) mListener.onServersUpdated();
+        }
+    };
+
+    public void setListener(OnServersUpdatedListener listener) {
+        mListener = listener;
+    }
+
+    public void setServers(List<? extends Server> servers) {
+        mServers.clear();
+        mServers.addAll(servers);
+    }
+
+    /**
+     * Starts refreshing, beginning with the servers that are already stale.
+     */
+    public void start() {
+        if (mRunning) return;
+        mRunning = true;
+        mHandler.post(mPingRunnable);
+    }
+
+    /**
+     * Stops refreshing. Results of pings already sent are still recorded.
+     */
+    public void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mPingRunnable);
+    }
+
+    /**
+     * @return The latest response of the server, which is a dummy if its last ping failed, or
+     * null if it has no result.
+     */
+    public ServerInfoResponse getResponse(Server server) {
+        return mCache.getResponse(server);
+    }
+
+    public LatencyStats getStats(Server server) {
+        return mCache.getStats(server);
+    }
+
+    private void postUpdate() {
+        if (mUpdatePosted) return;
+        mUpdatePosted = true;
+        mHandler.post(mUpdateRunnable);
+    }
+}
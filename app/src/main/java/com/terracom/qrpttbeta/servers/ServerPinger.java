@@ -0,0 +1,257 @@
+package com.terracom.qrpttbeta.servers;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.terracom.jumble.model.Server;
+import com.terracom.qrpttbeta.util.DnsCache;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pings Mumble servers over UDP for their user counts and latency. Every ping goes through one
+ * non-blocking socket serviced by a single thread: pings are sent as soon as they are queued,
+ * and replies are matched to them by the 8 byte identifier the server echoes back, which is the
+ * server's id. Pings of a server already awaiting a reply share that reply. Hosts are resolved
+ * through the {@link DnsCache}.
+ */
+public class ServerPinger {
+    private static final int TIMEOUT = 1000; // ms
+    private static final int REQUEST_LENGTH = 12;
+    private static final int RESPONSE_LENGTH = 24;
+
+    public interface OnPingResultListener {
+        /**
+         * Called on the main thread with the server's reply, or a dummy response if the ping
+         * failed or timed out.
+         */
+        public void onPingResult(Server server, ServerInfoResponse response);
+    }
+
+    private static ServerPinger sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Queue<Ping> mQueue = new ConcurrentLinkedQueue<Ping>();
+    private Selector mSelector;
+    private DatagramChannel mChannel;
+
+    // Only accessed by the ping thread.
+    private final Map<Long, Ping> mPending = new HashMap<Long, Ping>();
+    private final LinkedList<Ping> mUnsent = new LinkedList<Ping>();
+    private final ByteBuffer mSendBuffer = ByteBuffer.allocate(REQUEST_LENGTH);
+    private final ByteBuffer mReceiveBuffer = ByteBuffer.allocate(RESPONSE_LENGTH);
+    private long mNextIdentifier = Long.MIN_VALUE; // For ids already pending for another address.
+
+    public static synchronized ServerPinger getInstance() {
+        if (sInstance == null) {
+            sInstance = new ServerPinger();
+        }
+        return sInstance;
+    }
+
+    private ServerPinger() {
+    }
+
+    /**
+     * Pings the server, calling back the listener once it has replied or timed out.
+     */
+    public synchronized void ping(Server server, OnPingResultListener listener) {
+        Ping ping = new Ping(server, listener);
+        if (mChannel == null) {
+            try {
+                open();
+            } catch (IOException e) {
+                e.printStackTrace();
+                deliver(ping, new ServerInfoResponse());
+                return;
+            }
+        }
+        mQueue.add(ping);
+        mSelector.wakeup();
+    }
+
+    private void open() throws IOException {
+        mSelector = Selector.open();
+        mChannel = DatagramChannel.open();
+        mChannel.configureBlocking(false);
+        mChannel.socket().bind(null);
+        final SelectionKey key = mChannel.register(mSelector, SelectionKey.OP_READ);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    // This is the only thread serving pings, so nothing may end it.
+                    try {
+                        Ping ping;
+                        while ((ping = mQueue.poll()) != null) {
+                            try {
+                                enqueue(ping);
+                            } catch (RuntimeException e) {
+                                e.printStackTrace();
+                                mUnsent.remove(ping);
+                                if (mPending.get(ping.mIdentifier) == ping) {
+                                    mPending.remove(ping.mIdentifier);
+                                }
+                                deliver(ping, new ServerInfoResponse());
+                            }
+                        }
+                        send();
+                        long timeout = expire();
+                        key.interestOps(mUnsent.isEmpty() ? SelectionKey.OP_READ :
+                                SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        mSelector.select(timeout);
+                        mSelector.selectedKeys().clear();
+                        receive();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, "ServerPinger");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void enqueue(final Ping ping) {
+        Server server = ping.mServer;
+        InetAddress inetAddress;
+        try {
+            inetAddress = DnsCache.getInstance().getCached(server.getHost());
+        } catch (UnknownHostException e) {
+            deliver(ping, new ServerInfoResponse());
+            return;
+        }
+        if (inetAddress == null) {
+            // Looked up off this thread so other pings aren't held up, then queued again.
+            DnsCache.getInstance().prefetch(server.getHost(), new Runnable() {
+                @Override
+                public void run() {
+                    mQueue.add(ping);
+                    mSelector.wakeup();
+                }
+            });
+            return;
+        }
+        InetSocketAddress address = new InetSocketAddress(inetAddress, server.getPort());
+
+        long identifier = server.getId();
+        Ping pending = mPending.get(identifier);
+        if (pending != null && pending.mAddress.equals(address)) {
+            pending.mListeners.addAll(ping.mListeners);
+            return;
+        } else if (pending != null) {
+            identifier = mNextIdentifier++;
+        }
+        ping.mIdentifier = identifier;
+        ping.mAddress = address;
+        mPending.put(identifier, ping);
+        mUnsent.add(ping);
+    }
+
+    /**
+     * Sends queued pings until the socket's send buffer is full.
+     */
+    private void send() {
+        while (!mUnsent.isEmpty()) {
+            Ping ping = mUnsent.getFirst();
+            mSendBuffer.clear();
+            mSendBuffer.putInt(0);
+            mSendBuffer.putLong(ping.mIdentifier);
+            mSendBuffer.flip();
+            try {
+                if (mChannel.send(mSendBuffer, ping.mAddress) == 0) return;
+                ping.mSentTime = System.nanoTime();
+                ping.mDeadline = SystemClock.elapsedRealtime() + TIMEOUT;
+            } catch (IOException e) {
+                mPending.remove(ping.mIdentifier);
+                deliver(ping, new ServerInfoResponse());
+            } catch (RuntimeException e) {
+                // Such as an unresolved or otherwise unusable address.
+                e.printStackTrace();
+                mPending.remove(ping.mIdentifier);
+                deliver(ping, new ServerInfoResponse());
+            }
+            mUnsent.removeFirst();
+        }
+    }
+
+    private void receive() throws IOException {
+        while (true) {
+            mReceiveBuffer.clear();
+            if (mChannel.receive(mReceiveBuffer) == null) return;
+            if (mReceiveBuffer.position() < RESPONSE_LENGTH) continue;
+            Ping ping = mPending.get(mReceiveBuffer.getLong(4));
+            if (ping == null || ping.mSentTime == 0) continue;
+            mPending.remove(ping.mIdentifier);
+            int latency = (int) ((System.nanoTime() - ping.mSentTime) / 1000000);
+            byte[] response = Arrays.copyOf(mReceiveBuffer.array(), RESPONSE_LENGTH);
+            deliver(ping, new ServerInfoResponse(ping.mServer, response, latency));
+        }
+    }
+
+    /**
+     * Fails the pings that have gone unanswered for too long.
+     * @return The time until the next ping expires in ms, or 0 if none is awaiting a reply.
+     */
+    private long expire() {
+        long now = SystemClock.elapsedRealtime();
+        long timeout = 0;
+        Iterator<Ping> iterator = mPending.values().iterator();
+        while (iterator.hasNext()) {
+            Ping ping = iterator.next();
+            if (ping.mSentTime == 0) continue;
+            if (ping.mDeadline <= now) {
+                iterator.remove();
+                deliver(ping, new ServerInfoResponse());
+            } else if (timeout == 0 || ping.mDeadline - now < timeout) {
+                timeout = ping.mDeadline - now;
+            }
+        }
+        return timeout;
+    }
+
+    private void deliver(final Ping ping, final ServerInfoResponse response) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (OnPingResultListener listener : ping.mListeners) {
+                    listener.onPingResult(ping.mServer, response);
+                }
+            }
+        });
+    }
+
+    private static class Ping {
+        private final Server mServer;
+        private final List<OnPingResultListener> mListeners = new ArrayList<OnPingResultListener>(1);
+        private long mIdentifier;
+        private InetSocketAddress mAddress;
+        private long mSentTime; // System.nanoTime(), or 0 if unsent.
+        private long mDeadline; // SystemClock.elapsedRealtime()
+
+        public Ping(Server server, OnPingResultListener listener) {
+            mServer = server;
+            mListeners.add(listener);
+        }
+    }
+}
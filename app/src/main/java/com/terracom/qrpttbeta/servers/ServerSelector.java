@@ -0,0 +1,143 @@
+package com.terracom.qrpttbeta.servers;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.terracom.jumble.model.Server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the best of a group of mirrored servers by pinging them all at once. The first server
+ * to answer is chosen unless another answers within {@link #GRACE} with a clearly better score,
+ * so the choice is made about one round trip of the fastest server in rather than after trying
+ * servers in turn. Replies are scored by latency, loss and how full the server is. Main thread
+ * only.
+ */
+public class ServerSelector {
+    /** The score a full server adds, as if it were this many ms further away. */
+    private static final float LOAD_PENALTY = 100;
+    /** The score a server losing every ping adds, as a multiple of its latency. */
+    private static final float LOSS_PENALTY = 4;
+    /** The score a server without free slots adds, so it only wins if every mirror is full. */
+    private static final float FULL_PENALTY = 10000;
+    /** How long after the first reply a clearly better one may still replace it. */
+    private static final long GRACE = 50; // ms
+    /** The share by which a later reply's score must beat the chosen one's to replace it. */
+    private static final float SWITCH_MARGIN = 0.2f;
+    /** How long to wait for any reply, which includes looking the hosts up. */
+    private static final long MAX_WAIT = 3000; // ms
+
+    public interface OnServerSelectedListener {
+        /**
+         * Called on the main thread with the chosen server, or the fallback server if none of
+         * the group answered.
+         */
+        public void onServerSelected(Server server);
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final PingCache mCache = PingCache.getInstance();
+    private final List<Server> mServers;
+    private final Server mFallback;
+    private final OnServerSelectedListener mListener;
+    private int mResponseCount;
+    private Server mBest;
+    private float mBestScore;
+    private boolean mDone;
+
+    private final Runnable mSelectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            select();
+        }
+    };
+
+    private final ServerPinger.OnPingResultListener mPingListener = new ServerPinger.OnPingResultListener() {
+        @Override
+        public void onPingResult(Server server, ServerInfoResponse response) {
+            mCache.put(server, response);
+            if (mDone) return;
+            mResponseCount++;
+            if (!response.isDummy()) {
+                float score = score(response, mCache.getStats(server));
+                if (mBest == null) {
+                    mBest = server;
+                    mBestScore = score;
+                    mHandler.removeCallbacks(mSelectRunnable);
+                    mHandler.postDelayed(mSelectRunnable, GRACE);
+                } else if (score < mBestScore * (1 - SWITCH_MARGIN)) {
+                    mBest = server;
+                    mBestScore = score;
+                }
+            }
+            if (mResponseCount == mServers.size()) {
+                mHandler.removeCallbacks(mSelectRunnable);
+                select();
+            }
+        }
+    };
+
+    /**
+     * @param servers The mirrors to choose from.
+     * @param fallback The server to connect to if none of the mirrors answer.
+     */
+    public ServerSelector(List<? extends Server> servers, Server fallback,
+                          OnServerSelectedListener listener) {
+        mServers = new ArrayList<Server>(servers);
+        mFallback = fallback;
+        mListener = listener;
+    }
+
+    /**
+     * @return The saved servers sharing the server's name, which are taken to be mirrors of it.
+     * Always includes the server itself.
+     */
+    public static List<Server> getMirrors(Server server, List<Server> savedServers) {
+        List<Server> mirrors = new ArrayList<Server>();
+        mirrors.add(server);
+        if (server.getName() == null || server.getName().isEmpty()) return mirrors;
+        for (Server saved : savedServers) {
+            if (saved.getId() != server.getId() && server.getName().equalsIgnoreCase(saved.getName())) {
+                mirrors.add(saved);
+            }
+        }
+        return mirrors;
+    }
+
+    /**
+     * Pings every server in the group, calling back the listener once one has been chosen.
+     */
+    public void start() {
+        mHandler.postDelayed(mSelectRunnable, MAX_WAIT);
+        for (Server server : mServers) {
+            ServerPinger.getInstance().ping(server, mPingListener);
+        }
+    }
+
+    private void select() {
+        if (mDone) return;
+        mDone = true;
+        mListener.onServerSelected(mBest != null ? mBest : mFallback);
+    }
+
+    /**
+     * @return The score of a server that answered, lower being better. The latency is the
+     * smoothed one where the server has a history, so one lucky reply doesn't win.
+     */
+    public static float score(ServerInfoResponse response, LatencyStats stats) {
+        float latency = response.getLatency();
+        float loss = 0;
+        if (stats != null && stats.hasLatency()) {
+            latency = stats.getEwma();
+            loss = stats.getLoss();
+        }
+        float load = 0.5f; // Unknown.
+        if (response.getMaximumUsers() > 0) {
+            load = Math.min((float) response.getCurrentUsers() / response.getMaximumUsers(), 1);
+        }
+        if (load >= 1) latency += FULL_PENALTY;
+        return latency * (1 + LOSS_PENALTY * loss) + LOAD_PENALTY * load;
+    }
+}
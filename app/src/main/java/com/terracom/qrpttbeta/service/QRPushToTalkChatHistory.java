@@ -0,0 +1,222 @@
+package com.terracom.qrpttbeta.service;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.terracom.jumble.model.Channel;
+import com.terracom.jumble.model.Message;
+import com.terracom.jumble.model.User;
+import com.terracom.qrpttbeta.db.ChatMessage;
+import com.terracom.qrpttbeta.db.QRPushToTalkDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persists the chat of the connected server and pages it back for display. All database access
+ * happens on one background thread, in submission order; listeners and callbacks are invoked on
+ * the main thread. Messages logged in quick succession are written in a single transaction.
+ * Each server keeps its most recent {@link #MAX_MESSAGES} messages.
+ */
+public class QRPushToTalkChatHistory {
+    private static final int MAX_UNASSIGNED = 100;
+    /** The number of messages kept per server; older ones are deleted. */
+    private static final int MAX_MESSAGES = 5000;
+    /** The number of messages written between trims of the history. */
+    private static final int TRIM_INTERVAL = 100;
+
+    public interface OnMessagesAddedListener {
+        /**
+         * Called with newly stored messages, oldest first, each with its row id assigned.
+         */
+        public void onMessagesAdded(List<ChatMessage> messages);
+    }
+
+    public interface LoadCallback {
+        public void onMessagesLoaded(List<ChatMessage> messages);
+    }
+
+    private final QRPushToTalkDatabase mDatabase;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<OnMessagesAddedListener> mListeners = new ArrayList<OnMessagesAddedListener>();
+    private final List<ChatMessage> mPendingWrites = new ArrayList<ChatMessage>();
+    /** Messages logged while the server was unknown, stored once it is set. Main thread only. */
+    private final List<ChatMessage> mUnassigned = new ArrayList<ChatMessage>();
+    private long mServerId = -1;
+    private int mWritesSinceTrim; // History thread only.
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final List<ChatMessage> messages;
+            synchronized (mPendingWrites) {
+                messages = new ArrayList<ChatMessage>(mPendingWrites);
+                mPendingWrites.clear();
+            }
+            if (messages.isEmpty()) return;
+            mDatabase.addChatMessages(messages);
+            mWritesSinceTrim += messages.size();
+            if (mWritesSinceTrim >= TRIM_INTERVAL) {
+                mWritesSinceTrim = 0;
+                mDatabase.trimChatMessages(messages.get(messages.size() - 1).getServerId(), MAX_MESSAGES);
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (OnMessagesAddedListener listener : new ArrayList<OnMessagesAddedListener>(mListeners)) {
+                        listener.onMessagesAdded(messages);
+                    }
+                }
+            });
+        }
+    };
+
+    public QRPushToTalkChatHistory(QRPushToTalkDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Sets the server whose history is logged and loaded, storing any messages logged while it
+     * was unknown under it and trimming its history to {@link #MAX_MESSAGES}. Pass -1 while the
+     * server isn't known yet. Main thread only.
+     */
+    public void setServerId(final long serverId) {
+        mServerId = serverId;
+        if (serverId < 0) return;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.trimChatMessages(serverId, MAX_MESSAGES);
+            }
+        });
+        if (mUnassigned.isEmpty()) return;
+        for (ChatMessage message : mUnassigned) {
+            message.setServerId(serverId);
+            enqueue(message);
+        }
+        mUnassigned.clear();
+    }
+
+    public long getServerId() {
+        return mServerId;
+    }
+
+    public void addListener(OnMessagesAddedListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(OnMessagesAddedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Queues the message to be stored, resolving its target's name now.
+     * @param session The session of the local user, to tell whether they authored the message.
+     */
+    public void log(Message message, int session) {
+        String targetName = null;
+        if (message.getChannels() != null && !message.getChannels().isEmpty()) {
+            Channel channel = message.getChannels().get(0);
+            targetName = channel != null ? channel.getName() : null;
+        } else if (message.getTrees() != null && !message.getTrees().isEmpty()) {
+            Channel channel = message.getTrees().get(0);
+            targetName = channel != null ? channel.getName() : null;
+        } else if (message.getUsers() != null && !message.getUsers().isEmpty()) {
+            User user = message.getUsers().get(0);
+            targetName = user != null ? user.getName() : null;
+        }
+
+        ChatMessage chatMessage = new ChatMessage(-1, mServerId, message.getActorName(),
+                targetName, message.getType() == Message.Type.TEXT_MESSAGE,
+                message.getActor() == session, message.getMessage(),
+                message.getReceivedTime().toMillis(false));
+        if (mServerId < 0) {
+            // Bounded, as a server that isn't saved never gets an id.
+            if (mUnassigned.size() == MAX_UNASSIGNED) mUnassigned.remove(0);
+            mUnassigned.add(chatMessage);
+        } else {
+            enqueue(chatMessage);
+        }
+    }
+
+    private void enqueue(ChatMessage message) {
+        synchronized (mPendingWrites) {
+            mPendingWrites.add(message);
+            if (mPendingWrites.size() > 1) return; // A write is already queued and will take it.
+        }
+        mExecutor.execute(mWriteRunnable);
+    }
+
+    /**
+     * Loads up to limit messages older than the given id, oldest first. Pass Long.MAX_VALUE to
+     * load the most recent messages.
+     */
+    public void loadBefore(final long beforeId, final int limit, final LoadCallback callback) {
+        final long serverId = mServerId;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(mDatabase.getChatMessagesBefore(serverId, beforeId, limit), callback);
+            }
+        });
+    }
+
+    /**
+     * Loads up to limit messages newer than the given id, oldest first.
+     */
+    public void loadAfter(final long afterId, final int limit, final LoadCallback callback) {
+        final long serverId = mServerId;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(mDatabase.getChatMessagesAfter(serverId, afterId, limit), callback);
+            }
+        });
+    }
+
+    /**
+     * Finds up to limit of the most recent messages containing every word of the query, oldest
+     * first.
+     */
+    public void search(final String query, final int limit, final LoadCallback callback) {
+        final long serverId = mServerId;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(mDatabase.searchChatMessages(serverId, query, limit), callback);
+            }
+        });
+    }
+
+    public void clear() {
+        final long serverId = mServerId;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.clearChatMessages(serverId);
+            }
+        });
+    }
+
+    private void deliver(final List<ChatMessage> messages, final LoadCallback callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onMessagesLoaded(messages);
+            }
+        });
+    }
+
+    /**
+     * Finishes any queued writes, then stops the history's thread. The database is shared, so
+     * it is left open.
+     */
+    public void close() {
+        mExecutor.shutdown();
+    }
+}
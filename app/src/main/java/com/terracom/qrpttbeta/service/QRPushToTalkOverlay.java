@@ -11,37 +11,48 @@ import android.view.WindowManager;
 import android.widget.ImageView;
 import android.widget.ListView;
 
-import com.terracom.jumble.model.Channel;
 import com.terracom.jumble.model.User;
-import com.terracom.jumble.util.JumbleObserver;
 import com.terracom.qrpttbeta.R;
 import com.terracom.qrpttbeta.Settings;
 import com.terracom.qrpttbeta.channel.ChannelAdapter;
+import com.terracom.qrpttbeta.channel.UserPayload;
+import com.terracom.qrpttbeta.util.JumbleEventBatch;
+import com.terracom.qrpttbeta.util.JumbleEventDispatcher;
 
 public class QRPushToTalkOverlay {
 
     public static final int DEFAULT_WIDTH = 200;
     public static final int DEFAULT_HEIGHT = 240;
 
-    private JumbleObserver mObserver = new JumbleObserver() {
+    private JumbleEventDispatcher.OnEventBatchListener mEventListener = new JumbleEventDispatcher.OnEventBatchListener() {
         @Override
-        public void onUserTalkStateUpdated(User user) throws RemoteException {
-            mChannelAdapter.notifyDataSetChanged();
-        }
+        public void onEventBatch(JumbleEventBatch batch) throws RemoteException {
+            int session = mService.getBinder().getSession();
+            int channelId = mService.getBinder().getSessionChannel().getId();
+            if (batch.getMove(session) != null) { // Session user has changed channels
+                mChannelAdapter.setChannel(mService.getBinder().getSessionChannel());
+                return;
+            }
 
-        @Override
-        public void onUserStateUpdated(User user) throws RemoteException {
-            if (user.getChannelId() == mService.getBinder().getSessionChannel().getId())
+            boolean membersChanged = false;
+            for (JumbleEventBatch.UserMove move : batch.getMovedUsers()) {
+                if (move.getNewChannel().getId() == channelId ||
+                        (move.getOldChannel() != null && move.getOldChannel().getId() == channelId))
+                    membersChanged = true;
+            }
+            if (membersChanged) {
                 mChannelAdapter.notifyDataSetChanged();
-        }
+                return;
+            }
 
-        @Override
-        public void onUserJoinedChannel(User user, Channel newChannel, Channel oldChannel) throws RemoteException {
-            if (user.getSession() == mService.getBinder().getSession()) // Session user has changed channels
-                mChannelAdapter.setChannel(mService.getBinder().getSessionChannel());
-            else if (newChannel.getId() == mService.getBinder().getSessionChannel().getId() ||
-                    oldChannel.getId() == mService.getBinder().getSessionChannel().getId())
-                mChannelAdapter.notifyDataSetChanged();
+            for (User user : batch.getUpdatedUsers()) {
+                if (user.getChannelId() == channelId)
+                    mChannelAdapter.notifyUserChanged(mOverlayList, user,
+                            UserPayload.MUTE_STATE | UserPayload.NAME);
+            }
+            for (User user : batch.getTalkStateUpdatedUsers()) {
+                mChannelAdapter.notifyUserChanged(mOverlayList, user, UserPayload.TALK_STATE);
+            }
         }
     };
 
@@ -166,7 +177,7 @@ public class QRPushToTalkOverlay {
         try {
             mChannelAdapter = new ChannelAdapter(mService, mService.getBinder(), mService.getBinder().getSessionChannel());
             mOverlayList.setAdapter(mChannelAdapter);
-            mService.getBinder().registerObserver(mObserver);
+            mService.getBinder().getEventDispatcher().addListener(mEventListener);
             WindowManager windowManager = (WindowManager) mService.getSystemService(Context.WINDOW_SERVICE);
             windowManager.addView(mOverlayView, mOverlayParams);
         } catch (RemoteException e) {
@@ -181,12 +192,10 @@ public class QRPushToTalkOverlay {
             return;
         mShown = false;
         try {
-            mService.getBinder().unregisterObserver(mObserver);
+            mService.getBinder().getEventDispatcher().removeListener(mEventListener);
             mOverlayList.setAdapter(null);
             WindowManager windowManager = (WindowManager) mService.getSystemService(Context.WINDOW_SERVICE);
             windowManager.removeView(mOverlayView);
-        } catch (RemoteException e) {
-            e.printStackTrace();
         } catch (IllegalArgumentException e) {
             e.printStackTrace();
         }
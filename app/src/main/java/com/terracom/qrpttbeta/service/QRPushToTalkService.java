@@ -14,12 +14,16 @@ import android.speech.tts.TextToSpeech;
 import com.terracom.jumble.Constants;
 import com.terracom.jumble.JumbleService;
 import com.terracom.jumble.model.Message;
+import com.terracom.jumble.model.Server;
 import com.terracom.jumble.model.User;
 import com.terracom.jumble.util.JumbleException;
 import com.terracom.jumble.util.JumbleObserver;
 import com.terracom.qrpttbeta.R;
 import com.terracom.qrpttbeta.Settings;
+import com.terracom.qrpttbeta.db.QRPushToTalkSQLiteDatabase;
 import com.terracom.qrpttbeta.service.ipc.TalkBroadcastReceiver;
+import com.terracom.qrpttbeta.util.JumbleEventDispatcher;
+import com.terracom.qrpttbeta.util.JumbleModelMirror;
 
 public class QRPushToTalkService extends JumbleService implements
         SharedPreferences.OnSharedPreferenceChangeListener,
@@ -35,6 +39,9 @@ public class QRPushToTalkService extends JumbleService implements
     private QRPushToTalkNotification mNotification;
     private QRPushToTalkReconnectNotification mReconnectNotification;
     private QRPushToTalkOverlay mChannelOverlay;
+    private JumbleModelMirror mModelMirror;
+    private JumbleEventDispatcher mEventDispatcher;
+    private QRPushToTalkChatHistory mChatHistory;
     private PowerManager.WakeLock mProximityLock;
     private boolean mPTTSoundEnabled;
     private boolean mErrorShown;
@@ -87,6 +94,10 @@ public class QRPushToTalkService extends JumbleService implements
                     getString(R.string.connecting),
                     QRPushToTalkService.this);
             mErrorShown = false;
+
+            // Messages logged while connecting belong to the new server.
+            Server server = getBinder().getConnectedServer();
+            mChatHistory.setServerId(server != null ? server.getId() : -1);
         }
 
         @Override
@@ -146,6 +157,10 @@ public class QRPushToTalkService extends JumbleService implements
 
         @Override
         public void onMessageLogged(Message message) throws RemoteException {
+            // History is kept on disk; don't let the service's in-memory log grow with it.
+            mChatHistory.log(message, getBinder().getSession());
+            getBinder().clearMessageLog();
+
             String strippedMessage = message.getMessage().replaceAll("<[^>]*>", "");
 
             if (message.getType() == Message.Type.TEXT_MESSAGE) {
@@ -193,8 +208,13 @@ public class QRPushToTalkService extends JumbleService implements
     @Override
     public void onCreate() {
         super.onCreate();
+        mModelMirror = new JumbleModelMirror(getBinder());
+        mEventDispatcher = new JumbleEventDispatcher();
+        mChatHistory = new QRPushToTalkChatHistory(QRPushToTalkSQLiteDatabase.getInstance(this));
         try {
             getBinder().registerObserver(mObserver);
+            getBinder().registerObserver(mModelMirror);
+            getBinder().registerObserver(mEventDispatcher);
         } catch (RemoteException e) {
             e.printStackTrace();
         }
@@ -234,16 +254,24 @@ public class QRPushToTalkService extends JumbleService implements
 
         try {
             getBinder().unregisterObserver(mObserver);
+            getBinder().unregisterObserver(mModelMirror);
+            getBinder().unregisterObserver(mEventDispatcher);
         } catch (RemoteException e) {
             e.printStackTrace();
         }
         if (mTTS != null) mTTS.shutdown();
+        mChatHistory.close();
         super.onDestroy();
     }
 
     @Override
     public void onConnectionEstablished() {
         super.onConnectionEstablished();
+        try {
+            mChatHistory.setServerId(getBinder().getConnectedServer().getId());
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
         if (mSettings.isMuted() || mSettings.isDeafened()) {
             try {
                 getBinder().setSelfMuteDeafState(mSettings.isMuted(), mSettings.isDeafened());
@@ -428,6 +456,43 @@ public class QRPushToTalkService extends JumbleService implements
             return mErrorShown;
         }
 
+        @Override
+        public Message sendChannelTextMessage(int channel, String message, boolean tree) throws RemoteException {
+            Message sent = super.sendChannelTextMessage(channel, message, tree);
+            // The caller keeps sent messages in the chat history, as received ones are kept.
+            clearMessageLog();
+            return sent;
+        }
+
+        @Override
+        public Message sendUserTextMessage(int session, String message) throws RemoteException {
+            Message sent = super.sendUserTextMessage(session, message);
+            clearMessageLog();
+            return sent;
+        }
+
+        /**
+         * @return The dispatcher delivering this service's model and chat events to the UI in
+         * per-frame batches.
+         */
+        public JumbleEventDispatcher getEventDispatcher() {
+            return mEventDispatcher;
+        }
+
+        /**
+         * @return The app-side index of the connected server's channels and users.
+         */
+        public JumbleModelMirror getModelMirror() {
+            return mModelMirror;
+        }
+
+        /**
+         * @return The persistent chat history of the connected server.
+         */
+        public QRPushToTalkChatHistory getChatHistory() {
+            return mChatHistory;
+        }
+
         public void cancelReconnect() throws RemoteException {
             if (mReconnectNotification != null) {
                 mReconnectNotification.hide();
@@ -0,0 +1,90 @@
+package com.terracom.qrpttbeta.util;
+
+import java.io.InputStream;
+
+/**
+ * Reads the payload of a base64 data URI straight out of the URI's text, undoing percent escapes
+ * and base64 as it goes, so that an inline image can be decoded without copying it into
+ * intermediate strings or byte arrays. Characters outside the base64 alphabet, such as line
+ * breaks, are skipped. A '+' is read as base64 rather than as an escaped space.
+ */
+public class DataUriInputStream extends InputStream {
+    private static final int[] DECODE = new int[128];
+
+    static {
+        for (int i = 0; i < DECODE.length; i++) DECODE[i] = -1;
+        for (int i = 0; i < 26; i++) {
+            DECODE['A' + i] = i;
+            DECODE['a' + i] = 26 + i;
+        }
+        for (int i = 0; i < 10; i++) DECODE['0' + i] = 52 + i;
+        DECODE['+'] = DECODE['-'] = 62;
+        DECODE['/'] = DECODE['_'] = 63;
+    }
+
+    private final CharSequence mSource;
+    private final int mEnd;
+    private int mPosition;
+    private int mBits;
+    private int mBitCount;
+    private boolean mFinished;
+
+    /**
+     * @param uri The data URI.
+     * @param offset The offset of its payload, after the comma.
+     */
+    public DataUriInputStream(CharSequence uri, int offset) {
+        mSource = uri;
+        mPosition = offset;
+        mEnd = uri.length();
+    }
+
+    @Override
+    public int read() {
+        while (mBitCount < 8) {
+            int sextet = nextSextet();
+            if (sextet < 0) return -1; // Leftover bits are padding.
+            mBits = (mBits << 6) | sextet;
+            mBitCount += 6;
+        }
+        mBitCount -= 8;
+        int value = (mBits >> mBitCount) & 0xFF;
+        mBits &= (1 << mBitCount) - 1;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) return 0;
+        int count = 0;
+        while (count < length) {
+            int value = read();
+            if (value < 0) break;
+            buffer[offset + count++] = (byte) value;
+        }
+        return count > 0 ? count : -1;
+    }
+
+    /**
+     * @return The value of the next base64 character of the payload, or -1 at its end.
+     */
+    private int nextSextet() {
+        while (!mFinished && mPosition < mEnd) {
+            char c = mSource.charAt(mPosition++);
+            if (c == '%' && mPosition + 1 < mEnd) {
+                int high = Character.digit(mSource.charAt(mPosition), 16);
+                int low = Character.digit(mSource.charAt(mPosition + 1), 16);
+                if (high >= 0 && low >= 0) {
+                    c = (char) ((high << 4) | low);
+                    mPosition += 2;
+                }
+            }
+            if (c == '=') {
+                mFinished = true;
+            } else if (c < DECODE.length && DECODE[c] >= 0) {
+                return DECODE[c];
+            }
+        }
+        return -1;
+    }
+}
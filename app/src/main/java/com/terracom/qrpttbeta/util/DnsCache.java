@@ -0,0 +1,184 @@
+package com.terracom.qrpttbeta.util;
+
+import android.os.SystemClock;
+
+import com.terracom.jumble.model.Server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A process-wide cache of host name lookups, shared by the server pinger and the connect path.
+ * The platform only caches lookups for a couple of seconds, while on a slow link one can take
+ * several, so addresses are kept for {@link #TTL} and failures for {@link #NEGATIVE_TTL}.
+ * Lookups can be prefetched on a small background pool; concurrent lookups of a host share one.
+ *
+ * Thread safe. {@link #resolve(String)} blocks, so only use it off the main thread.
+ */
+public class DnsCache {
+    public static final long TTL = 5 * 60 * 1000; // ms
+    public static final long NEGATIVE_TTL = 30 * 1000; // ms
+    private static final int RESOLVER_THREADS = 2;
+
+    private static DnsCache sInstance;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(RESOLVER_THREADS);
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    /** The lookup in progress for each host. */
+    private final Map<String, Lookup> mLookups = new HashMap<String, Lookup>();
+    /** Bumped by {@link #invalidate()}, so that lookups started before it are discarded. */
+    private int mGeneration;
+
+    public static synchronized DnsCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DnsCache();
+        }
+        return sInstance;
+    }
+
+    private DnsCache() {
+    }
+
+    private static String getKey(String host) {
+        return host != null ? host.toLowerCase(Locale.US) : "";
+    }
+
+    /**
+     * @return The cached address of the host, or null if it has no fresh entry.
+     * @throws UnknownHostException If the host recently failed to resolve.
+     */
+    public synchronized InetAddress getCached(String host) throws UnknownHostException {
+        Entry entry = mEntries.get(getKey(host));
+        if (entry == null || entry.mExpiry <= SystemClock.elapsedRealtime()) return null;
+        if (entry.mAddress == null) throw new UnknownHostException(host);
+        return entry.mAddress;
+    }
+
+    /**
+     * @return The address of the host, looking it up if it has no fresh entry.
+     * @throws UnknownHostException If the host doesn't resolve now or recently failed to.
+     */
+    public InetAddress resolve(String host) throws UnknownHostException {
+        InetAddress address = getCached(host);
+        if (address != null) return address;
+        int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        return lookup(host, generation);
+    }
+
+    /**
+     * @param generation The generation the lookup was started in. The result is only cached if
+     *                   the cache hasn't been invalidated since.
+     */
+    private InetAddress lookup(String host, int generation) throws UnknownHostException {
+        InetAddress address = null;
+        try {
+            address = InetAddress.getByName(host);
+            return address;
+        } finally {
+            Entry entry = new Entry();
+            entry.mAddress = address;
+            entry.mExpiry = SystemClock.elapsedRealtime() + (address != null ? TTL : NEGATIVE_TTL);
+            synchronized (this) {
+                // A result from before a network change may be stale, so only the caller gets it.
+                if (generation == mGeneration) {
+                    mEntries.put(getKey(host), entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the host in the background unless it has a fresh entry, then runs the callback.
+     * The callback runs straight away on the calling thread if the host has a fresh entry, and
+     * on the lookup thread otherwise. It may be null.
+     */
+    public void prefetch(final String host, Runnable callback) {
+        final String key = getKey(host);
+        final Lookup lookup;
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            boolean fresh = entry != null && entry.mExpiry > SystemClock.elapsedRealtime();
+            Lookup pending = mLookups.get(key);
+            if (!fresh && pending != null && pending.mGeneration == mGeneration) {
+                if (callback != null) pending.mCallbacks.add(callback);
+                return;
+            }
+            if (fresh) {
+                lookup = null;
+            } else {
+                // Replaces any lookup started before a network change, which runs its own
+                // callbacks when done but leaves the cache alone.
+                lookup = new Lookup(mGeneration);
+                if (callback != null) lookup.mCallbacks.add(callback);
+                mLookups.put(key, lookup);
+            }
+        }
+        if (lookup == null) {
+            if (callback != null) callback.run();
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lookup(host, lookup.mGeneration);
+                } catch (UnknownHostException e) {
+                    // Cached as a failure.
+                } finally {
+                    List<Runnable> callbacks;
+                    synchronized (DnsCache.this) {
+                        if (mLookups.get(key) == lookup) {
+                            mLookups.remove(key);
+                        }
+                        callbacks = new ArrayList<Runnable>(lookup.mCallbacks);
+                    }
+                    for (Runnable callback : callbacks) {
+                        callback.run();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Looks up the hosts of the servers in the background.
+     */
+    public void prefetch(List<? extends Server> servers) {
+        for (Server server : servers) {
+            if (server.getHost() != null) prefetch(server.getHost(), null);
+        }
+    }
+
+    /**
+     * Drops every entry, as after a network change the addresses returned and the hosts that
+     * resolve at all may differ.
+     */
+    public synchronized void invalidate() {
+        mEntries.clear();
+        mGeneration++;
+    }
+
+    private static class Lookup {
+        private final int mGeneration;
+        private final List<Runnable> mCallbacks = new ArrayList<Runnable>(1);
+
+        private Lookup(int generation) {
+            mGeneration = generation;
+        }
+    }
+
+    private static class Entry {
+        private InetAddress mAddress; // Null if the lookup failed.
+        private long mExpiry; // SystemClock.elapsedRealtime()
+    }
+}
@@ -0,0 +1,256 @@
+package com.terracom.qrpttbeta.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.v4.util.LruCache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide image cache shared by chat messages, comments and avatars. Decoded bitmaps are
+ * kept in a memory LRU bounded by their size in bytes. Encoded images fetched from the network
+ * are also kept on disk, in an LRU of files in the app's cache directory bounded by their total
+ * size. Entries are keyed by a hash of their source.
+ *
+ * Thread safe. Disk and network access block, so only use them off the main thread.
+ */
+public class ImageCache {
+    private static final String DISK_CACHE_DIR = "images";
+    private static final long DISK_CACHE_SIZE = 10 * 1024 * 1024; // bytes
+    private static final int MEMORY_CACHE_FRACTION = 8; // Bitmaps get 1/8 of the heap.
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int KEY_CHUNK_LENGTH = 4096;
+    private static final int CONNECT_TIMEOUT = 10000; // ms
+    private static final int READ_TIMEOUT = 15000; // ms
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static ImageCache sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDiskCacheDir;
+    /** File sizes by key, least recently used first. Guarded by itself. */
+    private final LinkedHashMap<String, Long> mDiskEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long mDiskSize;
+    private boolean mDiskIndexed;
+
+    public static synchronized ImageCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ImageCache(Context context) {
+        int memoryBudget = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryBudget) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+    }
+
+    /**
+     * @return A fixed length key for the source, which may be a URL or a whole data URI. The
+     * source is hashed in chunks, so a long data URI is never copied whole.
+     */
+    public static String getKey(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (int start = 0; start < source.length(); ) {
+                int end = Math.min(start + KEY_CHUNK_LENGTH, source.length());
+                if (end < source.length() && Character.isHighSurrogate(source.charAt(end - 1))) {
+                    end--; // Keep surrogate pairs in one chunk.
+                }
+                digest.update(source.substring(start, end).getBytes("UTF-8"));
+                start = end;
+            }
+            byte[] hash = digest.digest();
+            char[] key = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                key[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+                key[i * 2 + 1] = HEX[hash[i] & 0xF];
+            }
+            return new String(key);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The MIME type of the encoded image, or null if it can't be decoded as one.
+     */
+    public static String getMimeType(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        return options.outMimeType;
+    }
+
+    public Bitmap getBitmap(String key) {
+        return mMemoryCache.get(key);
+    }
+
+    public void putBitmap(String key, Bitmap bitmap) {
+        mMemoryCache.put(key, bitmap);
+    }
+
+    /**
+     * Returns the encoded image at the URL, from disk if it was fetched before. Otherwise it is
+     * fetched and, if it is an image, stored.
+     * @param maxLength The largest image to fetch, in bytes.
+     * @return The encoded image, or null if it couldn't be fetched, is too large or isn't an image.
+     */
+    public byte[] loadData(String url, int maxLength) {
+        String key = getKey(url);
+        byte[] data = getData(key);
+        if (data != null) return data;
+
+        data = download(url, maxLength);
+        if (data == null || getMimeType(data) == null) return null;
+        putData(key, data);
+        return data;
+    }
+
+    /**
+     * @return The encoded image stored on disk for the key, or null if absent.
+     */
+    public byte[] getData(String key) {
+        File file = new File(mDiskCacheDir, key);
+        synchronized (mDiskEntries) {
+            indexDisk();
+            if (mDiskEntries.get(key) == null) return null;
+            file.setLastModified(System.currentTimeMillis());
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                return readFully(in, (int) file.length());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Evicted since it was looked up, or unreadable.
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void putData(String key, byte[] data) {
+        synchronized (mDiskEntries) {
+            indexDisk();
+            if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) return;
+            File temp = new File(mDiskCacheDir, key + TEMP_SUFFIX);
+            try {
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    out.write(data);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                temp.delete();
+                return;
+            }
+            if (!temp.renameTo(new File(mDiskCacheDir, key))) {
+                temp.delete();
+                return;
+            }
+            Long oldSize = mDiskEntries.put(key, (long) data.length);
+            mDiskSize += data.length - (oldSize != null ? oldSize : 0);
+            trimDisk();
+        }
+    }
+
+    /**
+     * Loads the disk entries on first use, least recently used first. Leftovers of interrupted
+     * writes are deleted.
+     */
+    private void indexDisk() {
+        if (mDiskIndexed) return;
+        mDiskIndexed = true;
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            mDiskEntries.put(file.getName(), file.length());
+            mDiskSize += file.length();
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> iterator = mDiskEntries.entrySet().iterator();
+        while (mDiskSize > DISK_CACHE_SIZE && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            new File(mDiskCacheDir, entry.getKey()).delete();
+            mDiskSize -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    private static byte[] download(String source, int maxLength) {
+        try {
+            URLConnection conn = new URL(source).openConnection();
+            // A slow host must not hold a loader thread indefinitely.
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(READ_TIMEOUT);
+            if (conn.getContentLength() > maxLength) return null;
+            InputStream in = conn.getInputStream();
+            try {
+                return readFully(in, maxLength);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return The stream's contents, or null if it is longer than maxLength.
+     */
+    private static byte[] readFully(InputStream in, int maxLength) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (out.size() > maxLength) return null;
+        }
+        return out.toByteArray();
+    }
+}
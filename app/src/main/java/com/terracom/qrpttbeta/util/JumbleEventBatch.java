@@ -0,0 +1,181 @@
+package com.terracom.qrpttbeta.util;
+
+import android.util.SparseArray;
+
+import com.terracom.jumble.model.Channel;
+import com.terracom.jumble.model.Message;
+import com.terracom.jumble.model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The service events gathered by {@link JumbleEventDispatcher} during a single frame, with
+ * redundant events for the same channel or user merged into one.
+ */
+public class JumbleEventBatch {
+
+    public static class UserMove {
+        private final User mUser;
+        private final Channel mOldChannel;
+        private Channel mNewChannel;
+
+        UserMove(User user, Channel newChannel, Channel oldChannel) {
+            mUser = user;
+            mNewChannel = newChannel;
+            mOldChannel = oldChannel;
+        }
+
+        public User getUser() {
+            return mUser;
+        }
+
+        /**
+         * @return The channel the user was in before the first move in this batch.
+         */
+        public Channel getOldChannel() {
+            return mOldChannel;
+        }
+
+        /**
+         * @return The channel the user is in after the last move in this batch.
+         */
+        public Channel getNewChannel() {
+            return mNewChannel;
+        }
+    }
+
+    private final SparseArray<Channel> mAddedChannels = new SparseArray<Channel>();
+    private final SparseArray<Channel> mUpdatedChannels = new SparseArray<Channel>();
+    private final SparseArray<Channel> mRemovedChannels = new SparseArray<Channel>();
+    private final SparseArray<User> mConnectedUsers = new SparseArray<User>();
+    private final SparseArray<User> mUpdatedUsers = new SparseArray<User>();
+    private final SparseArray<User> mTalkStateUsers = new SparseArray<User>();
+    private final SparseArray<User> mRemovedUsers = new SparseArray<User>();
+    private final SparseArray<UserMove> mMovedUsers = new SparseArray<UserMove>();
+    private final List<Message> mMessages = new ArrayList<Message>();
+
+    void addChannelAdded(Channel channel) {
+        mAddedChannels.put(channel.getId(), channel);
+    }
+
+    void addChannelUpdated(Channel channel) {
+        if (mAddedChannels.get(channel.getId()) == null) {
+            mUpdatedChannels.put(channel.getId(), channel);
+        }
+    }
+
+    void addChannelRemoved(Channel channel) {
+        mAddedChannels.remove(channel.getId());
+        mUpdatedChannels.remove(channel.getId());
+        mRemovedChannels.put(channel.getId(), channel);
+    }
+
+    void addUserConnected(User user) {
+        mConnectedUsers.put(user.getSession(), user);
+    }
+
+    void addUserUpdated(User user) {
+        mUpdatedUsers.put(user.getSession(), user);
+    }
+
+    void addUserTalkStateUpdated(User user) {
+        mTalkStateUsers.put(user.getSession(), user);
+    }
+
+    void addUserMoved(User user, Channel newChannel, Channel oldChannel) {
+        UserMove move = mMovedUsers.get(user.getSession());
+        if (move == null) {
+            mMovedUsers.put(user.getSession(), new UserMove(user, newChannel, oldChannel));
+        } else {
+            move.mNewChannel = newChannel;
+        }
+    }
+
+    void addUserRemoved(User user) {
+        int session = user.getSession();
+        mConnectedUsers.remove(session);
+        mUpdatedUsers.remove(session);
+        mTalkStateUsers.remove(session);
+        mMovedUsers.remove(session);
+        mRemovedUsers.put(session, user);
+    }
+
+    void addMessage(Message message) {
+        mMessages.add(message);
+    }
+
+    public boolean isEmpty() {
+        return !hasTreeChanges()
+                && mUpdatedUsers.size() == 0
+                && mTalkStateUsers.size() == 0
+                && mMessages.isEmpty();
+    }
+
+    /**
+     * @return true if channels or users were added, removed or moved, changing the shape of the
+     * channel tree.
+     */
+    public boolean hasTreeChanges() {
+        return mAddedChannels.size() > 0
+                || mUpdatedChannels.size() > 0
+                || mRemovedChannels.size() > 0
+                || mConnectedUsers.size() > 0
+                || mRemovedUsers.size() > 0
+                || mMovedUsers.size() > 0;
+    }
+
+    public List<Channel> getAddedChannels() {
+        return values(mAddedChannels);
+    }
+
+    public List<Channel> getUpdatedChannels() {
+        return values(mUpdatedChannels);
+    }
+
+    public List<Channel> getRemovedChannels() {
+        return values(mRemovedChannels);
+    }
+
+    public List<User> getConnectedUsers() {
+        return values(mConnectedUsers);
+    }
+
+    public List<User> getUpdatedUsers() {
+        return values(mUpdatedUsers);
+    }
+
+    public List<User> getTalkStateUpdatedUsers() {
+        return values(mTalkStateUsers);
+    }
+
+    public List<User> getRemovedUsers() {
+        return values(mRemovedUsers);
+    }
+
+    public List<UserMove> getMovedUsers() {
+        return values(mMovedUsers);
+    }
+
+    /**
+     * @return The merged move of the user with the given session, or null if they didn't move.
+     */
+    public UserMove getMove(int session) {
+        return mMovedUsers.get(session);
+    }
+
+    /**
+     * @return The messages logged during this batch, in the order they were received.
+     */
+    public List<Message> getMessages() {
+        return mMessages;
+    }
+
+    private static <T> List<T> values(SparseArray<T> array) {
+        List<T> list = new ArrayList<T>(array.size());
+        for (int i = 0; i < array.size(); i++) {
+            list.add(array.valueAt(i));
+        }
+        return list;
+    }
+}
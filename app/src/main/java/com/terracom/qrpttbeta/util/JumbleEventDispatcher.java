@@ -0,0 +1,165 @@
+package com.terracom.qrpttbeta.util;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.view.Choreographer;
+
+import com.terracom.jumble.IJumbleService;
+import com.terracom.jumble.model.Channel;
+import com.terracom.jumble.model.Message;
+import com.terracom.jumble.model.User;
+import com.terracom.jumble.util.JumbleException;
+import com.terracom.jumble.util.JumbleObserver;
+import com.terracom.qrpttbeta.service.QRPushToTalkService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single service observer that gathers channel, user and chat events for the duration of a
+ * frame and hands every listener one merged {@link JumbleEventBatch}. Bursts of callbacks, such
+ * as a server full of users reconnecting, then cost one UI update per frame instead of one per
+ * event. Must be created and used on the main thread.
+ */
+public class JumbleEventDispatcher extends JumbleObserver {
+    private static final long FALLBACK_FRAME_DELAY = 16; // ms, for devices without Choreographer
+
+    public interface OnEventBatchListener {
+        public void onEventBatch(JumbleEventBatch batch) throws RemoteException;
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<OnEventBatchListener> mListeners = new ArrayList<OnEventBatchListener>();
+    private JumbleEventBatch mPendingBatch = new JumbleEventBatch();
+    private boolean mFlushScheduled;
+    private Object mFrameCallback;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @return The dispatcher of the given service binder, or null if it doesn't provide one.
+     */
+    public static JumbleEventDispatcher from(IJumbleService service) {
+        if (service instanceof QRPushToTalkService.QRPushToTalkBinder) {
+            return ((QRPushToTalkService.QRPushToTalkBinder) service).getEventDispatcher();
+        }
+        return null;
+    }
+
+    public void addListener(OnEventBatchListener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(OnEventBatchListener listener) {
+        mListeners.remove(listener);
+    }
+
+    @Override
+    public void onDisconnected(JumbleException e) throws RemoteException {
+        // Pending events refer to a model that no longer exists.
+        mPendingBatch = new JumbleEventBatch();
+    }
+
+    @Override
+    public void onChannelAdded(Channel channel) throws RemoteException {
+        mPendingBatch.addChannelAdded(channel);
+        scheduleFlush();
+    }
+
+    @Override
+    public void onChannelStateUpdated(Channel channel) throws RemoteException {
+        mPendingBatch.addChannelUpdated(channel);
+        scheduleFlush();
+    }
+
+    @Override
+    public void onChannelRemoved(Channel channel) throws RemoteException {
+        mPendingBatch.addChannelRemoved(channel);
+        scheduleFlush();
+    }
+
+    @Override
+    public void onUserConnected(User user) throws RemoteException {
+        mPendingBatch.addUserConnected(user);
+        scheduleFlush();
+    }
+
+    @Override
+    public void onUserStateUpdated(User user) throws RemoteException {
+        mPendingBatch.addUserUpdated(user);
+        scheduleFlush();
+    }
+
+    @Override
+    public void onUserTalkStateUpdated(User user) throws RemoteException {
+        mPendingBatch.addUserTalkStateUpdated(user);
+        scheduleFlush();
+    }
+
+    @Override
+    public void onUserJoinedChannel(User user, Channel newChannel, Channel oldChannel) throws RemoteException {
+        mPendingBatch.addUserMoved(user, newChannel, oldChannel);
+        scheduleFlush();
+    }
+
+    @Override
+    public void onUserRemoved(User user, String reason) throws RemoteException {
+        mPendingBatch.addUserRemoved(user);
+        scheduleFlush();
+    }
+
+    @Override
+    public void onMessageLogged(Message message) throws RemoteException {
+        mPendingBatch.addMessage(message);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (mFlushScheduled) return;
+        mFlushScheduled = true;
+        if (Build.VERSION.SDK_INT >= 16) {
+            postFrameCallback();
+        } else {
+            mHandler.postDelayed(mFlushRunnable, FALLBACK_FRAME_DELAY);
+        }
+    }
+
+    @TargetApi(16)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    flush();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    private void flush() {
+        mFlushScheduled = false;
+        JumbleEventBatch batch = mPendingBatch;
+        mPendingBatch = new JumbleEventBatch();
+        if (batch.isEmpty()) return;
+
+        // Copy so listeners may unregister themselves while handling the batch.
+        for (OnEventBatchListener listener : new ArrayList<OnEventBatchListener>(mListeners)) {
+            try {
+                listener.onEventBatch(batch);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
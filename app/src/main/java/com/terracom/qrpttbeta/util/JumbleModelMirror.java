@@ -0,0 +1,533 @@
+package com.terracom.qrpttbeta.util;
+
+import android.os.RemoteException;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import com.terracom.jumble.IJumbleService;
+import com.terracom.jumble.model.Channel;
+import com.terracom.jumble.model.User;
+import com.terracom.jumble.util.JumbleException;
+import com.terracom.jumble.util.JumbleObserver;
+import com.terracom.qrpttbeta.service.QRPushToTalkService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An app-side index of the connected server's channels and users, kept current from service
+ * events. UI code resolves ids through the mirror instead of calling into the service once per
+ * row, which keeps those calls off the scroll and search paths. Subtree user counts and the
+ * name search indexes are maintained incrementally as users join, leave, move and rename.
+ *
+ * Updated on the main thread. The service mutates the live {@link Channel} and {@link User}
+ * objects in place on that thread, so they must only be read there. Other threads read the
+ * immutable {@link ChannelState} and {@link UserState} copies, which are replaced whenever the
+ * object they were taken from changes.
+ */
+public class JumbleModelMirror extends JumbleObserver {
+    private static final int NO_CHANNEL = -1;
+    private static final int MAX_DEPTH = 64; // Guards against a cycle in a malformed tree.
+
+    private final IJumbleService mService;
+    private final SparseArray<Channel> mChannels = new SparseArray<Channel>();
+    private final SparseArray<User> mUsers = new SparseArray<User>();
+    private final SparseArray<ChannelState> mChannelStates = new SparseArray<ChannelState>();
+    private final SparseArray<UserState> mUserStates = new SparseArray<UserState>();
+    private final SparseIntArray mParents = new SparseIntArray();
+    private final SparseIntArray mUserChannels = new SparseIntArray();
+    private final SparseIntArray mSubtreeUserCounts = new SparseIntArray();
+    private final NameIndex mChannelNames = new NameIndex();
+    private final NameIndex mUserNames = new NameIndex();
+
+    public JumbleModelMirror(IJumbleService service) {
+        mService = service;
+    }
+
+    /**
+     * @return The mirror of the given service binder, or null if it doesn't provide one.
+     */
+    public static JumbleModelMirror from(IJumbleService service) {
+        if (service instanceof QRPushToTalkService.QRPushToTalkBinder) {
+            return ((QRPushToTalkService.QRPushToTalkBinder) service).getModelMirror();
+        }
+        return null;
+    }
+
+    /**
+     * @return The live channel from the service's mirror, or from the service itself if it has
+     * no mirror or the mirror doesn't know the channel yet. Null if neither does. Main thread
+     * only.
+     */
+    public static Channel resolveChannel(IJumbleService service, int id) throws RemoteException {
+        JumbleModelMirror model = from(service);
+        Channel channel = model != null ? model.getChannel(id) : null;
+        return channel != null ? channel : service.getChannel(id);
+    }
+
+    /**
+     * @return The live user from the service's mirror, or from the service itself if it has no
+     * mirror or the mirror doesn't know the user yet. Null if neither does. Main thread only.
+     */
+    public static User resolveUser(IJumbleService service, int session) throws RemoteException {
+        JumbleModelMirror model = from(service);
+        User user = model != null ? model.getUser(session) : null;
+        return user != null ? user : service.getUser(session);
+    }
+
+    /**
+     * @return Every channel of the server depth first from the root, read from the service's
+     * mirror or, if it has none or isn't populated yet, from the service itself. Empty if the
+     * server tree isn't known. Main thread only.
+     */
+    public static List<Channel> resolveChannelList(IJumbleService service) throws RemoteException {
+        JumbleModelMirror model = from(service);
+        if (model != null && model.getRootChannel() != null) {
+            return model.getChannelList(model.getRootChannel());
+        }
+        List<Channel> channels = new ArrayList<Channel>();
+        Channel root = service.getRootChannel();
+        if (root != null) {
+            addChannelList(service, root, channels);
+        }
+        return channels;
+    }
+
+    private static void addChannelList(IJumbleService service, Channel channel,
+                                       List<Channel> channels) throws RemoteException {
+        channels.add(channel);
+        for (int cid : channel.getSubchannels()) {
+            Channel subchannel = service.getChannel(cid);
+            if (subchannel != null) {
+                addChannelList(service, subchannel, channels);
+            }
+        }
+    }
+
+    /**
+     * @return The live channel, or null if unknown. Main thread only.
+     */
+    public synchronized Channel getChannel(int id) {
+        return mChannels.get(id);
+    }
+
+    /**
+     * @return The live user, or null if unknown. Main thread only.
+     */
+    public synchronized User getUser(int session) {
+        return mUsers.get(session);
+    }
+
+    public synchronized ChannelState getChannelState(int id) {
+        return mChannelStates.get(id);
+    }
+
+    public synchronized UserState getUserState(int session) {
+        return mUserStates.get(session);
+    }
+
+    public Channel getRootChannel() {
+        return getChannel(0);
+    }
+
+    /**
+     * @return A copy of all known channels, in ascending id order. Main thread only.
+     */
+    public synchronized List<Channel> getChannels() {
+        List<Channel> channels = new ArrayList<Channel>(mChannels.size());
+        for (int i = 0; i < mChannels.size(); i++) {
+            channels.add(mChannels.valueAt(i));
+        }
+        return channels;
+    }
+
+    /**
+     * @return A copy of all connected users, in ascending session order. Main thread only.
+     */
+    public synchronized List<User> getUsers() {
+        List<User> users = new ArrayList<User>(mUsers.size());
+        for (int i = 0; i < mUsers.size(); i++) {
+            users.add(mUsers.valueAt(i));
+        }
+        return users;
+    }
+
+    /**
+     * @return The given channel followed by all of its descendants, depth first. Main thread
+     * only.
+     */
+    public List<Channel> getChannelList(Channel root) {
+        List<Channel> channels = new ArrayList<Channel>();
+        addChannelList(root, channels);
+        return channels;
+    }
+
+    private void addChannelList(Channel channel, List<Channel> channels) {
+        channels.add(channel);
+        for (int cid : channel.getSubchannels()) {
+            Channel subchannel = getChannel(cid);
+            if (subchannel != null) {
+                addChannelList(subchannel, channels);
+            }
+        }
+    }
+
+    /**
+     * @return The number of users in the given channel and all of its descendants.
+     */
+    public synchronized int getSubchannelUserCount(int channelId) {
+        return mSubtreeUserCounts.get(channelId);
+    }
+
+    /**
+     * @return The channels named exactly the given name, in ascending id order.
+     */
+    public synchronized List<ChannelState> getChannelStatesNamed(String name) {
+        List<ChannelState> channels = new ArrayList<ChannelState>();
+        for (int i = 0; i < mChannelStates.size(); i++) {
+            ChannelState channel = mChannelStates.valueAt(i);
+            if (name.equals(channel.getName())) {
+                channels.add(channel);
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * @return Up to limit channels whose name contains the query, ignoring case, prefix matches
+     * first.
+     */
+    public synchronized List<ChannelState> searchChannels(String query, int limit) {
+        int[] ids = mChannelNames.search(query, limit);
+        List<ChannelState> channels = new ArrayList<ChannelState>(ids.length);
+        for (int id : ids) {
+            channels.add(mChannelStates.get(id));
+        }
+        return channels;
+    }
+
+    /**
+     * @return Up to limit users whose name contains the query, ignoring case, prefix matches
+     * first.
+     */
+    public synchronized List<UserState> searchUsers(String query, int limit) {
+        int[] sessions = mUserNames.search(query, limit);
+        List<UserState> users = new ArrayList<UserState>(sessions.length);
+        for (int session : sessions) {
+            users.add(mUserStates.get(session));
+        }
+        return users;
+    }
+
+    @Override
+    public void onConnected() throws RemoteException {
+        // Resynchronize in full in case events were missed before the server sync completed.
+        Channel root = mService.getRootChannel();
+        synchronized (this) {
+            clear();
+        }
+        if (root != null) {
+            mirror(root);
+        }
+    }
+
+    private void mirror(Channel channel) throws RemoteException {
+        synchronized (this) {
+            putChannel(channel);
+        }
+        for (int uid : channel.getUsers()) {
+            User user = mService.getUser(uid);
+            if (user != null) {
+                synchronized (this) {
+                    putUser(user);
+                }
+            }
+        }
+        for (int cid : channel.getSubchannels()) {
+            Channel subchannel = mService.getChannel(cid);
+            if (subchannel != null) {
+                mirror(subchannel);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onDisconnected(JumbleException e) throws RemoteException {
+        clear();
+    }
+
+    @Override
+    public synchronized void onChannelAdded(Channel channel) throws RemoteException {
+        putChannel(channel);
+    }
+
+    @Override
+    public synchronized void onChannelStateUpdated(Channel channel) throws RemoteException {
+        putChannel(channel);
+    }
+
+    @Override
+    public synchronized void onChannelRemoved(Channel channel) throws RemoteException {
+        int id = channel.getId();
+        int parent = mParents.get(id, NO_CHANNEL);
+        addToAncestors(parent, -mSubtreeUserCounts.get(id));
+        mChannels.remove(id);
+        mChannelStates.remove(id);
+        mChannelNames.remove(id);
+        mParents.delete(id);
+        mSubtreeUserCounts.delete(id);
+        updateChannelState(parent);
+    }
+
+    @Override
+    public synchronized void onUserConnected(User user) throws RemoteException {
+        putUser(user);
+    }
+
+    @Override
+    public synchronized void onUserStateUpdated(User user) throws RemoteException {
+        putUser(user);
+    }
+
+    @Override
+    public synchronized void onUserTalkStateUpdated(User user) throws RemoteException {
+        putUser(user);
+    }
+
+    @Override
+    public synchronized void onUserJoinedChannel(User user, Channel newChannel, Channel oldChannel) throws RemoteException {
+        putUser(user);
+    }
+
+    @Override
+    public synchronized void onUserRemoved(User user, String reason) throws RemoteException {
+        int session = user.getSession();
+        int channel = mUserChannels.get(session, NO_CHANNEL);
+        addToAncestors(channel, -1);
+        mUsers.remove(session);
+        mUserStates.remove(session);
+        mUserNames.remove(session);
+        mUserChannels.delete(session);
+        updateChannelState(channel);
+    }
+
+    private void clear() {
+        mChannels.clear();
+        mUsers.clear();
+        mChannelStates.clear();
+        mUserStates.clear();
+        mParents.clear();
+        mUserChannels.clear();
+        mSubtreeUserCounts.clear();
+        mChannelNames.clear();
+        mUserNames.clear();
+    }
+
+    /**
+     * Indexes the channel, carrying its subtree user count over to its new ancestors if it was
+     * moved to another parent.
+     */
+    private void putChannel(Channel channel) {
+        int id = channel.getId();
+        boolean known = mChannels.get(id) != null;
+        int oldParent = mParents.get(id, NO_CHANNEL);
+        int newParent = id == 0 ? NO_CHANNEL : channel.getParent();
+        mChannels.put(id, channel);
+        mChannelStates.put(id, new ChannelState(channel, newParent));
+        mChannelNames.put(id, channel.getName());
+        mParents.put(id, newParent);
+        if (oldParent != newParent) {
+            int count = mSubtreeUserCounts.get(id);
+            addToAncestors(oldParent, -count);
+            addToAncestors(newParent, count);
+            updateChannelState(oldParent);
+        }
+        if (!known || oldParent != newParent) {
+            updateChannelState(newParent);
+        }
+    }
+
+    /**
+     * Indexes the user, moving their contribution to the subtree user counts if their channel
+     * differs from the one last seen.
+     */
+    private void putUser(User user) {
+        int session = user.getSession();
+        int oldChannel = mUserChannels.get(session, NO_CHANNEL);
+        int newChannel = user.getChannelId();
+        mUsers.put(session, user);
+        mUserStates.put(session, new UserState(user));
+        mUserNames.put(session, user.getName());
+        mUserChannels.put(session, newChannel);
+        if (oldChannel != newChannel) {
+            addToAncestors(oldChannel, -1);
+            addToAncestors(newChannel, 1);
+            updateChannelState(oldChannel);
+            updateChannelState(newChannel);
+        }
+    }
+
+    /**
+     * Copies the channel's state again, after its users or subchannels changed.
+     */
+    private void updateChannelState(int channelId) {
+        Channel channel = mChannels.get(channelId);
+        if (channel != null) {
+            mChannelStates.put(channelId, new ChannelState(channel, mParents.get(channelId, NO_CHANNEL)));
+        }
+    }
+
+    /**
+     * Adds delta to the subtree user count of the given channel and each of its ancestors.
+     * Costs O(depth) rather than a walk of the whole tree.
+     */
+    private void addToAncestors(int channelId, int delta) {
+        if (delta == 0) return;
+        int depth = 0;
+        while (channelId != NO_CHANNEL && depth++ < MAX_DEPTH) {
+            mSubtreeUserCounts.put(channelId, mSubtreeUserCounts.get(channelId) + delta);
+            channelId = mParents.get(channelId, NO_CHANNEL);
+        }
+    }
+
+    /**
+     * An immutable copy of the parts of a channel shown in lists, safe to read from any thread.
+     */
+    public static class ChannelState {
+        private final int mId;
+        private final int mParent;
+        private final String mName;
+        private final int[] mSubchannels;
+        private final int[] mUsers;
+
+        private ChannelState(Channel channel, int parent) {
+            mId = channel.getId();
+            mParent = parent;
+            mName = channel.getName();
+            mSubchannels = toArray(channel.getSubchannels());
+            mUsers = toArray(channel.getUsers());
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        /**
+         * @return The id of the parent channel, or -1 for the root.
+         */
+        public int getParent() {
+            return mParent;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getSubchannelCount() {
+            return mSubchannels.length;
+        }
+
+        public int getSubchannel(int index) {
+            return mSubchannels[index];
+        }
+
+        public int getUserCount() {
+            return mUsers.length;
+        }
+
+        public int getUser(int index) {
+            return mUsers[index];
+        }
+    }
+
+    /**
+     * An immutable copy of the parts of a user shown in lists, safe to read from any thread.
+     */
+    public static class UserState {
+        private final int mSession;
+        private final int mChannelId;
+        private final String mName;
+        private final User.TalkState mTalkState;
+        private final boolean mSelfDeafened;
+        private final boolean mDeafened;
+        private final boolean mSelfMuted;
+        private final boolean mMuted;
+        private final boolean mSuppressed;
+        private final boolean mHasTexture;
+        private final int mTextureKey;
+
+        private UserState(User user) {
+            mSession = user.getSession();
+            mChannelId = user.getChannelId();
+            mName = user.getName();
+            mTalkState = user.getTalkState();
+            mSelfDeafened = user.isSelfDeafened();
+            mDeafened = user.isDeafened();
+            mSelfMuted = user.isSelfMuted();
+            mMuted = user.isMuted();
+            mSuppressed = user.isSuppressed();
+            mHasTexture = user.getTexture() != null;
+            mTextureKey = getTextureKey(user);
+        }
+
+        /**
+         * @return A hash identifying the user's current avatar.
+         */
+        public static int getTextureKey(User user) {
+            return user.getTextureHash() != null ?
+                    user.getTextureHash().hashCode() : System.identityHashCode(user.getTexture());
+        }
+
+        public int getSession() {
+            return mSession;
+        }
+
+        public int getChannelId() {
+            return mChannelId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public User.TalkState getTalkState() {
+            return mTalkState;
+        }
+
+        public boolean isSelfDeafened() {
+            return mSelfDeafened;
+        }
+
+        public boolean isDeafened() {
+            return mDeafened;
+        }
+
+        public boolean isSelfMuted() {
+            return mSelfMuted;
+        }
+
+        public boolean isMuted() {
+            return mMuted;
+        }
+
+        public boolean isSuppressed() {
+            return mSuppressed;
+        }
+
+        public boolean hasTexture() {
+            return mHasTexture;
+        }
+
+        public int getTextureKey() {
+            return mTextureKey;
+        }
+    }
+}
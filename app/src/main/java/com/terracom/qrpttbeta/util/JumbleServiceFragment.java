@@ -45,10 +45,21 @@ public abstract class JumbleServiceFragment extends Fragment {
     public void onServiceBound(IJumbleService service) {
     }
 
+    public void onServiceUnbound(IJumbleService service) {
+    }
+
     public IJumbleObserver getServiceObserver() {
         return null;
     }
 
+    /**
+     * @return A listener receiving the service's model and chat events batched per frame, or
+     * null if the fragment isn't interested in them.
+     */
+    public JumbleEventDispatcher.OnEventBatchListener getEventBatchListener() {
+        return null;
+    }
+
     private void onServiceAttached(IJumbleService service) {
         mBound = true;
         try {
@@ -57,6 +68,9 @@ public abstract class JumbleServiceFragment extends Fragment {
         } catch (RemoteException e) {
             e.printStackTrace();
         }
+        JumbleEventDispatcher dispatcher = JumbleEventDispatcher.from(service);
+        if (dispatcher != null && getEventBatchListener() != null)
+            dispatcher.addListener(getEventBatchListener());
 
         onServiceBound(service);
     }
@@ -69,7 +83,11 @@ public abstract class JumbleServiceFragment extends Fragment {
         } catch (RemoteException e) {
             e.printStackTrace();
         }
+        JumbleEventDispatcher dispatcher = JumbleEventDispatcher.from(service);
+        if (dispatcher != null && getEventBatchListener() != null)
+            dispatcher.removeListener(getEventBatchListener());
 
+        onServiceUnbound(service);
     }
 
     public void setServiceBound(boolean bound) {
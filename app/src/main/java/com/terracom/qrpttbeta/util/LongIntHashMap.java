@@ -0,0 +1,112 @@
+package com.terracom.qrpttbeta.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from primitive longs to primitive ints, avoiding the boxing and
+ * per-entry allocation of a HashMap<Long, Integer>. Lookups are constant time on average.
+ * Not thread safe.
+ */
+public class LongIntHashMap {
+    private static final float LOAD_FACTOR = 0.5f;
+    private static final int MIN_CAPACITY = 16;
+
+    private final int mMissingValue;
+    private long[] mKeys;
+    private int[] mValues;
+    private boolean[] mUsed;
+    private int mSize;
+
+    /**
+     * @param expectedSize The number of entries expected, used to size the table up front.
+     * @param missingValue The value returned by {@link #get(long)} for absent keys.
+     */
+    public LongIntHashMap(int expectedSize, int missingValue) {
+        mMissingValue = missingValue;
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int get(long key) {
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+        while (mUsed[index]) {
+            if (mKeys[index] == key) {
+                return mValues[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return mMissingValue;
+    }
+
+    public boolean containsKey(long key) {
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+        while (mUsed[index]) {
+            if (mKeys[index] == key) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public void put(long key, int value) {
+        if (mSize + 1 > mKeys.length * LOAD_FACTOR) {
+            rehash(mKeys.length * 2);
+        }
+        int mask = mKeys.length - 1;
+        int index = hash(key) & mask;
+        while (mUsed[index]) {
+            if (mKeys[index] == key) {
+                mValues[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        mUsed[index] = true;
+        mKeys[index] = key;
+        mValues[index] = value;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void clear() {
+        Arrays.fill(mUsed, false);
+        mSize = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        boolean[] used = mUsed;
+        allocate(capacity);
+        mSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                put(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mUsed = new boolean[capacity];
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -3,91 +3,252 @@ package com.terracom.qrpttbeta.util;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.StrictMode;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Html;
-import android.util.Base64;
+import android.text.Spanned;
+import android.text.style.ImageSpan;
 import android.util.DisplayMetrics;
 
+import com.terracom.qrpttbeta.R;
 import com.terracom.qrpttbeta.Settings;
 
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Resolves the images of chat HTML. Inline data URIs are decoded as they are requested; remote
+ * images are returned as a placeholder and fetched on a small shared pool, replacing the
+ * placeholder once decoded. Requests for an image already being fetched share that fetch.
+ * Decoded and fetched images are kept in the {@link ImageCache}.
+ */
 public class MumbleImageGetter implements Html.ImageGetter {
 
-
     private static final int MAX_LENGTH = 64000;
+    private static final int MAX_DATA_URI_LENGTH = 1024 * 1024; // Base64 characters.
+    private static final int CHAT_INSET_DP = 32; // Padding of the chat list and its cards.
+    private static final int LOADER_THREADS = 2;
+
+    private static final ExecutorService sLoadExecutor = Executors.newFixedThreadPool(LOADER_THREADS);
 
     private Context mContext;
     private Settings mSettings;
-    private Map<String, Drawable> mBitmapCache;
+    private ImageCache mImageCache;
+    private final Map<String, List<RemoteImageDrawable>> mPendingLoads;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final int mMaxWidth;
+    private final int mMaxPixels;
 
     public MumbleImageGetter(Context context) {
         mContext = context;
         mSettings = Settings.getInstance(context);
-        mBitmapCache = new HashMap<String, Drawable>();
+        mImageCache = ImageCache.getInstance(context);
+        mPendingLoads = new HashMap<String, List<RemoteImageDrawable>>();
+
+        // The widest the chat column gets, in either orientation.
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        mMaxWidth = Math.max(metrics.widthPixels, metrics.heightPixels) - (int) (CHAT_INSET_DP * metrics.density);
+        mMaxPixels = metrics.widthPixels * metrics.heightPixels;
+    }
 
-        StrictMode.ThreadPolicy policy = new StrictMode.ThreadPolicy.Builder().permitAll().build();
-        StrictMode.setThreadPolicy(policy);
+    /**
+     * Sets the callback notified when a remote image of the given text has loaded. The callback
+     * should relayout the view displaying the text, as the image's size will have changed.
+     * Drawables only hold their callback weakly, so the caller must keep a reference to it.
+     */
+    public static void setImageCallback(Spanned text, Drawable.Callback callback) {
+        for (ImageSpan span : text.getSpans(0, text.length(), ImageSpan.class)) {
+            if (span.getDrawable() instanceof RemoteImageDrawable) {
+                span.getDrawable().setCallback(callback);
+            }
+        }
     }
 
     @Override
     public Drawable getDrawable(String source) {
-        Drawable cachedDrawable = mBitmapCache.get(source);
-        if (cachedDrawable != null) return cachedDrawable;
+        String key = ImageCache.getKey(source);
+        Bitmap bitmap = mImageCache.getBitmap(key);
+        if (bitmap != null) return createDrawable(bitmap);
 
-        String decodedSource;
-        try {
-            decodedSource = URLDecoder.decode(source, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-            return null;
+        if (source.startsWith("data:image")) {
+            bitmap = getDataUriImage(source);
+            if (bitmap == null) return null;
+            mImageCache.putBitmap(key, bitmap);
+            return createDrawable(bitmap);
+        } else if (mSettings.shouldLoadExternalImages()) {
+            String decodedSource;
+            try {
+                decodedSource = URLDecoder.decode(source, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                e.printStackTrace();
+                return null;
+            }
+            Drawable placeholder = mContext.getResources().getDrawable(R.drawable.chat_image_placeholder);
+            placeholder.setBounds(0, 0, placeholder.getIntrinsicWidth(), placeholder.getIntrinsicHeight());
+            RemoteImageDrawable drawable = new RemoteImageDrawable(placeholder);
+            loadURLImage(key, decodedSource, drawable);
+            return drawable;
         }
+        return null;
+    }
 
-        Bitmap bitmap = null;
-        try {
-            if (decodedSource.startsWith("data:image")) {
-                bitmap = getBase64Image(decodedSource.split(",")[1]);
-            } else if (mSettings.shouldLoadExternalImages()) {
-                bitmap = getURLImage(decodedSource);
+    private void loadURLImage(final String key, final String url, RemoteImageDrawable drawable) {
+        synchronized (mPendingLoads) {
+            List<RemoteImageDrawable> waiting = mPendingLoads.get(key);
+            if (waiting != null) {
+                waiting.add(drawable);
+                return;
             }
-        } catch (IllegalArgumentException e) {
-            e.printStackTrace();
-            return null;
+            waiting = new ArrayList<RemoteImageDrawable>();
+            waiting.add(drawable);
+            mPendingLoads.put(key, waiting);
         }
-        if (bitmap == null) return null;
 
+        sLoadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data = mImageCache.loadData(url, MAX_LENGTH);
+                final Bitmap bitmap = data != null ? decodeBounded(data) : null;
+                if (bitmap != null) {
+                    mImageCache.putBitmap(key, bitmap);
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        List<RemoteImageDrawable> waiting;
+                        synchronized (mPendingLoads) {
+                            waiting = mPendingLoads.remove(key);
+                        }
+                        if (bitmap == null || waiting == null) return;
+                        for (RemoteImageDrawable drawable : waiting) {
+                            drawable.setDrawable(createDrawable(bitmap));
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private Drawable createDrawable(Bitmap bitmap) {
         BitmapDrawable drawable = new BitmapDrawable(mContext.getResources(), bitmap);
         DisplayMetrics metrics = mContext.getResources().getDisplayMetrics(); // Use display metrics to scale image to mdpi
-        drawable.setBounds(0, 0, (int) ((float) drawable.getIntrinsicWidth() * metrics.density), (int) ((float) drawable.getIntrinsicHeight() * metrics.density));
-        mBitmapCache.put(source, drawable);
+        float width = (float) bitmap.getWidth() * metrics.density;
+        float height = (float) bitmap.getHeight() * metrics.density;
+        if (width > mMaxWidth) {
+            height *= mMaxWidth / width;
+            width = mMaxWidth;
+        }
+        drawable.setBounds(0, 0, (int) width, (int) height);
         return drawable;
     }
 
-    private Bitmap getBase64Image(String base64) throws IllegalArgumentException {
-        byte[] src = Base64.decode(base64, Base64.DEFAULT);
-        return BitmapFactory.decodeByteArray(src, 0, src.length);
-    }
+    /**
+     * Decodes a base64 data URI's image as it is read from the URI, like {@link #decodeBounded}.
+     */
+    private Bitmap getDataUriImage(String uri) {
+        int offset = uri.indexOf(',') + 1;
+        if (offset == 0 || uri.length() - offset > MAX_DATA_URI_LENGTH) return null;
 
-    private Bitmap getURLImage(String source) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(new DataUriInputStream(uri, offset), null, options);
+        if (!setSampling(options)) return null;
         try {
-            URL url = new URL(source);
-            URLConnection conn = url.openConnection();
-            if (conn.getContentLength() > MAX_LENGTH) return null;
-            return BitmapFactory.decodeStream(conn.getInputStream());
-        } catch (MalformedURLException e) {
+            return BitmapFactory.decodeStream(new DataUriInputStream(uri, offset), null, options);
+        } catch (OutOfMemoryError e) {
             e.printStackTrace();
-        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the image no larger than it can be displayed. A first pass reads only its
+     * dimensions; the second subsamples by the largest power of two that still fills the chat
+     * column, and further until the bitmap is within a screen's worth of pixels.
+     * @return The bitmap, or null if the data isn't a decodable image.
+     */
+    private Bitmap decodeBounded(byte[] data) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (!setSampling(options)) return null;
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (OutOfMemoryError e) {
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Prepares options holding an image's bounds for decoding it at the size it is displayed.
+     * @return false if the bounds are those of an undecodable image.
+     */
+    private boolean setSampling(BitmapFactory.Options options) {
+        if (options.outWidth <= 0 || options.outHeight <= 0) return false;
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mMaxWidth) {
+            sampleSize *= 2;
+        }
+        while ((long) (options.outWidth / sampleSize) * (options.outHeight / sampleSize) > mMaxPixels) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        if ("image/jpeg".equals(options.outMimeType)) {
+            options.inPreferredConfig = Bitmap.Config.RGB_565; // No alpha to keep.
+        }
+        return true;
+    }
+
+    /**
+     * Draws a placeholder until the remote image it stands for has loaded, then draws the image
+     * and takes on its bounds. Main thread only once returned.
+     */
+    public static class RemoteImageDrawable extends Drawable {
+        private Drawable mDrawable;
+
+        public RemoteImageDrawable(Drawable placeholder) {
+            mDrawable = placeholder;
+            setBounds(placeholder.getBounds());
+        }
+
+        public void setDrawable(Drawable drawable) {
+            mDrawable = drawable;
+            setBounds(drawable.getBounds());
+            invalidateSelf();
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            mDrawable.draw(canvas);
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            mDrawable.setAlpha(alpha);
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter colorFilter) {
+            mDrawable.setColorFilter(colorFilter);
+        }
+
+        @Override
+        public int getOpacity() {
+            return mDrawable.getOpacity();
         }
-        return null;
     }
 }
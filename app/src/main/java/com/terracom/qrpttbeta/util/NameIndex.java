@@ -0,0 +1,145 @@
+package com.terracom.qrpttbeta.util;
+
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * A substring index over names keyed by int id. Every name is broken into its 1, 2 and 3
+ * character grams, each mapping to the ids whose name contains it. Queries of up to three
+ * characters are answered straight from a posting list; longer queries verify only the ids of
+ * their rarest trigram. Either way the cost follows the number of candidates, not the number of
+ * names. Not thread safe.
+ */
+public class NameIndex {
+    private static final int MAX_GRAM = 3;
+    private static final int[] EMPTY = new int[0];
+
+    private final SparseArray<String> mNames = new SparseArray<String>();
+    private final HashMap<String, SparseBooleanArray> mPostings = new HashMap<String, SparseBooleanArray>();
+
+    public static String normalize(String name) {
+        return name != null ? name.toLowerCase(Locale.getDefault()) : "";
+    }
+
+    /**
+     * Indexes or renames the given id. Unchanged names are not reindexed.
+     */
+    public void put(int id, String name) {
+        String normalized = normalize(name);
+        String oldName = mNames.get(id);
+        if (normalized.equals(oldName)) return;
+        if (oldName != null) {
+            updateGrams(id, oldName, false);
+        }
+        mNames.put(id, normalized);
+        updateGrams(id, normalized, true);
+    }
+
+    public void remove(int id) {
+        String oldName = mNames.get(id);
+        if (oldName != null) {
+            updateGrams(id, oldName, false);
+            mNames.remove(id);
+        }
+    }
+
+    public void clear() {
+        mNames.clear();
+        mPostings.clear();
+    }
+
+    /**
+     * @return The normalized name indexed for the id, or null if absent.
+     */
+    public String getName(int id) {
+        return mNames.get(id);
+    }
+
+    /**
+     * @return The ids whose name contains the query, ignoring case, in ascending order.
+     */
+    public int[] search(String query) {
+        String normalized = normalize(query);
+        if (normalized.length() == 0) {
+            int[] ids = new int[mNames.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mNames.keyAt(i);
+            }
+            return ids;
+        }
+        if (normalized.length() <= MAX_GRAM) {
+            SparseBooleanArray posting = mPostings.get(normalized);
+            if (posting == null) return EMPTY;
+            int[] ids = new int[posting.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = posting.keyAt(i);
+            }
+            return ids;
+        }
+
+        SparseBooleanArray rarest = null;
+        for (int i = 0; i + MAX_GRAM <= normalized.length(); i++) {
+            SparseBooleanArray posting = mPostings.get(normalized.substring(i, i + MAX_GRAM));
+            if (posting == null) return EMPTY;
+            if (rarest == null || posting.size() < rarest.size()) {
+                rarest = posting;
+            }
+        }
+        int[] ids = new int[rarest.size()];
+        int count = 0;
+        for (int i = 0; i < rarest.size(); i++) {
+            int id = rarest.keyAt(i);
+            if (mNames.get(id).contains(normalized)) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * @return Up to limit ids whose name contains the query, ignoring case. Names starting with
+     * the query are ranked before those only containing it.
+     */
+    public int[] search(String query, int limit) {
+        String normalized = normalize(query);
+        int[] matches = search(normalized);
+        int[] ranked = new int[Math.min(limit, matches.length)];
+        int count = 0;
+        for (int i = 0; i < matches.length && count < ranked.length; i++) {
+            if (mNames.get(matches[i]).startsWith(normalized)) {
+                ranked[count++] = matches[i];
+            }
+        }
+        for (int i = 0; i < matches.length && count < ranked.length; i++) {
+            if (!mNames.get(matches[i]).startsWith(normalized)) {
+                ranked[count++] = matches[i];
+            }
+        }
+        return ranked;
+    }
+
+    private void updateGrams(int id, String name, boolean add) {
+        for (int length = 1; length <= MAX_GRAM; length++) {
+            for (int i = 0; i + length <= name.length(); i++) {
+                String gram = name.substring(i, i + length);
+                SparseBooleanArray posting = mPostings.get(gram);
+                if (add) {
+                    if (posting == null) {
+                        posting = new SparseBooleanArray(1);
+                        mPostings.put(gram, posting);
+                    }
+                    posting.put(id, true);
+                } else if (posting != null) {
+                    posting.delete(id);
+                    if (posting.size() == 0) {
+                        mPostings.remove(gram);
+                    }
+                }
+            }
+        }
+    }
+}